@@ -0,0 +1,62 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+#compare the bundled pg73 driver with another JDBC driver on the placeOrder and viewCatalog paths
+#usage: ./bench_drivers.sh <path to pgjdbc jar> [extra load generator options]
+#every run replays the same trace against the same data: a warm-up run records the trace, then
+#BENCH_ROUNDS rounds (default 2) run both drivers, alternating which one goes first, and the
+#orders a run placed are deleted before the next one; the reports of all rounds are averaged
+NEW_JAR=$1
+if [ -z "$NEW_JAR" ]; then
+   echo "Usage: $0 <path to pgjdbc jar> [--clients N] [--rate OPS_PER_SEC] [--duration SECONDS]"
+   exit 1
+fi
+shift
+
+OUT=${BENCH_DIR:-$(mktemp -d)}
+ROUNDS=${BENCH_ROUNDS:-2}
+OLD_JAR=$DIR/../lib/pg73jdbc3.jar
+echo "Writing traces and reports to $OUT"
+
+#removes the orders the load generator placed (IDs "RO<node>-<stamp>"), so every run starts
+#from the loaded data; set PSQL if cs166_psql is not the psql wrapper on this machine
+reset_orders() {
+   ${PSQL:-cs166_psql} -q -p $PGPORT $USER"_project_phase_3_DB" \
+      -c "DELETE FROM OrderSummary WHERE rentalOrderID LIKE 'RO%';
+          DELETE FROM TrackingInfo WHERE rentalOrderID LIKE 'RO%';
+          DELETE FROM GamesInOrder WHERE rentalOrderID LIKE 'RO%';
+          DELETE FROM RentalOrder WHERE rentalOrderID LIKE 'RO%';" \
+   && ${PSQL:-cs166_psql} -q -p $PGPORT $USER"_project_phase_3_DB" \
+      -c "VACUUM ANALYZE OrderSummary, TrackingInfo, GamesInOrder, RentalOrder;"
+}
+
+#runs the trace with one driver: run <name> <jar> <round>
+run() {
+   reset_orders || exit 1
+   GAMERENTAL_JDBC_JAR=$2 $DIR/loadgen.sh --replay $OUT/trace.tsv --report $OUT/$1-$3.tsv "${EXTRA[@]}"
+}
+
+#the warm-up run fills the database and JIT caches and records the trace
+EXTRA=("$@")
+reset_orders || exit 1
+GAMERENTAL_JDBC_JAR=$OLD_JAR $DIR/loadgen.sh --mix browse=50,order=50 --record $OUT/trace.tsv "$@" > $OUT/warmup.log
+
+OLD_REPORTS=""
+NEW_REPORTS=""
+for ROUND in $(seq 1 $ROUNDS); do
+   if [ $((ROUND % 2)) -eq 1 ]; then
+      run pg73 $OLD_JAR $ROUND
+      run new $NEW_JAR $ROUND
+   else
+      run new $NEW_JAR $ROUND
+      run pg73 $OLD_JAR $ROUND
+   fi
+   OLD_REPORTS=$OLD_REPORTS${OLD_REPORTS:+,}$OUT/pg73-$ROUND.tsv
+   NEW_REPORTS=$NEW_REPORTS${NEW_REPORTS:+,}$OUT/new-$ROUND.tsv
+done
+reset_orders
+
+echo
+echo "New driver against pg73, averaged over $ROUNDS round(s):"
+java -cp $DIR/../classes LoadGenerator --diff $OLD_REPORTS $NEW_REPORTS
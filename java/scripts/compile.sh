@@ -3,9 +3,13 @@ DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 
 
 # compile the java program
-javac -d $DIR/../classes $DIR/../src/GameRental.java
+javac -d $DIR/../classes $DIR/../src/*.java
 
 #run the java program
 #Use your database name, port number and login
-java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar GameRental $USER"_project_phase_3_DB" $PGPORT $USER
+#Set GAMERENTAL_REPLICAS to a comma separated list of JDBC URLs to serve reads from replicas
+#Set GAMERENTAL_JDBC_JAR to use another PostgreSQL JDBC driver (e.g. a current pgJDBC 42.x jar)
+#and GAMERENTAL_JDBC_OPTS to pass it driver properties, e.g. "-Dgamerental.jdbc.prepareThreshold=1"
+GAMERENTAL_JDBC_JAR=${GAMERENTAL_JDBC_JAR:-$DIR/../lib/pg73jdbc3.jar}
+java $GAMERENTAL_JDBC_OPTS ${GAMERENTAL_REPLICAS:+-Dgamerental.replicas=$GAMERENTAL_REPLICAS} -cp $DIR/../classes:$GAMERENTAL_JDBC_JAR GameRental $USER"_project_phase_3_DB" $PGPORT $USER
 
@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#export order history and catalog from your database, options are passed through
+#e.g. ./export.sh --tables all --format csv --out exports --from 2020-01-01 --to 2021-01-01
+#     ./export.sh --tables rentalorder --format columnar --login katiepotts4 --fetch-size 50000
+#GAMERENTAL_JDBC_JAR and GAMERENTAL_JDBC_OPTS pick the driver and its properties as in compile.sh
+GAMERENTAL_JDBC_JAR=${GAMERENTAL_JDBC_JAR:-$DIR/../lib/pg73jdbc3.jar}
+java $GAMERENTAL_JDBC_OPTS ${GAMERENTAL_REPLICAS:+-Dgamerental.replicas=$GAMERENTAL_REPLICAS} -cp $DIR/../classes:$GAMERENTAL_JDBC_JAR OrderExporter $USER"_project_phase_3_DB" $PGPORT $USER "$@"
+
@@ -0,0 +1,39 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+#run the java program in fast-start mode, without recompiling
+#the menu is shown right away, the database connection opens in the background
+#and the catalog/genre list comes from a local snapshot until it is revalidated
+#run compile.sh first after changing the sources
+
+#class data sharing only works with jar files, so package the compiled classes
+APP_JAR=$DIR/../lib/gamerental.jar
+if [ ! -f "$APP_JAR" ] || [ "$DIR/../classes/GameRental.class" -nt "$APP_JAR" ]; then
+   (cd $DIR/../classes && jar cf "$APP_JAR" *.class)
+fi
+
+#GAMERENTAL_JDBC_JAR and GAMERENTAL_JDBC_OPTS pick the driver and its properties as in compile.sh
+GAMERENTAL_JDBC_JAR=${GAMERENTAL_JDBC_JAR:-$DIR/../lib/pg73jdbc3.jar}
+CLASSPATH_USED=$APP_JAR:$GAMERENTAL_JDBC_JAR
+
+#class data sharing archive (JDK 13+): written on the first run, mapped on later runs
+#the JVM only maps it with the exact classpath it was written with, so it is
+#rewritten when either jar changes or another driver jar is picked
+CDS_ARCHIVE=$DIR/../lib/gamerental.jsa
+if [ -f "$CDS_ARCHIVE" ] && [ "$CDS_ARCHIVE" -nt "$APP_JAR" ] && [ "$CDS_ARCHIVE" -nt "$GAMERENTAL_JDBC_JAR" ] \
+   && [ "$(cat "$CDS_ARCHIVE.classpath" 2>/dev/null)" = "$CLASSPATH_USED" ]; then
+   CDS_OPTS="-XX:SharedArchiveFile=$CDS_ARCHIVE -Xshare:auto"
+else
+   rm -f "$CDS_ARCHIVE"
+   echo "$CLASSPATH_USED" > "$CDS_ARCHIVE.classpath"
+   CDS_OPTS="-XX:ArchiveClassesAtExit=$CDS_ARCHIVE"
+fi
+
+#Use your database name, port number and login
+#C1 only: the client is short lived and interactive, so peak JIT throughput does not pay off
+java $CDS_OPTS -XX:TieredStopAtLevel=1 -Dgamerental.fastStart=true $GAMERENTAL_JDBC_OPTS \
+   ${GAMERENTAL_SNAPSHOT:+-Dgamerental.snapshot=$GAMERENTAL_SNAPSHOT} \
+   ${GAMERENTAL_REPLICAS:+-Dgamerental.replicas=$GAMERENTAL_REPLICAS} \
+   -cp $CLASSPATH_USED GameRental $USER"_project_phase_3_DB" $PGPORT $USER
+
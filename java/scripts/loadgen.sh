@@ -0,0 +1,16 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#run the load generator against your database, extra options are passed through
+#e.g. ./loadgen.sh --clients 32 --rate 500 --duration 120 --record trace.tsv --report before.tsv
+#     ./loadgen.sh --clients 32 --replay trace.tsv --compare before.tsv
+#GAMERENTAL_JDBC_JAR and GAMERENTAL_JDBC_OPTS pick the driver and its properties as in compile.sh
+#Set GAMERENTAL_SCHEDULER to a number of database slots to run the clients through the request scheduler
+GAMERENTAL_JDBC_JAR=${GAMERENTAL_JDBC_JAR:-$DIR/../lib/pg73jdbc3.jar}
+java $GAMERENTAL_JDBC_OPTS ${GAMERENTAL_REPLICAS:+-Dgamerental.replicas=$GAMERENTAL_REPLICAS} \
+   ${GAMERENTAL_SCHEDULER:+-Dgamerental.scheduler=true -Dgamerental.scheduler.concurrency=$GAMERENTAL_SCHEDULER} -cp $DIR/../classes:$GAMERENTAL_JDBC_JAR LoadGenerator $USER"_project_phase_3_DB" $PGPORT $USER --data $DIR/../../data "$@"
+
@@ -0,0 +1,196 @@
+/*
+ * Catalog snapshot for the Game Rental System
+ * ===========================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * This class is a locally persisted copy of the Catalog table and its genre
+ * list.  A fast-start client loads it from disk before the database
+ * connection is open, so the genre prompt and a first catalog browse do not
+ * wait on the database, and replaces it once it has been revalidated.
+ *
+ */
+public class CatalogSnapshot {
+
+   // bump when the file layout changes; older files are ignored
+   private static final int VERSION = 1;
+
+   // column names as executeQueryAndPrintResult reports them for SELECT * FROM Catalog
+   private static final List<String> COLUMNS = Arrays.asList(
+      "gameid", "gamename", "genre", "price", "description", "imageurl");
+
+   private static final String CATALOG_QUERY =
+      "SELECT gameID, gameName, genre, price, description, imageURL FROM Catalog ORDER BY gameID";
+
+   // catalog rows in gameID order, values as returned by ResultSet.getString
+   private List<List<String>> _rows;
+
+   // distinct lower case genres of the catalog
+   private List<String> _genres;
+
+   private CatalogSnapshot(List<List<String>> rows) {
+      this._rows = rows;
+      TreeSet<String> genres = new TreeSet<String>();
+      for (List<String> row : rows) {
+         genres.add(row.get(2).toLowerCase());
+      }
+      this._genres = new ArrayList<String>(genres);
+   }//end CatalogSnapshot
+
+   /**
+    * Reads the current catalog from the database.
+    *
+    * @param esql the database to read from
+    * @return the snapshot
+    * @throws java.sql.SQLException when the query fails
+    */
+   public static CatalogSnapshot fromDatabase(GameRental esql) throws SQLException {
+      return new CatalogSnapshot(esql.executeQueryAndReturnResult(CATALOG_QUERY));
+   }//end fromDatabase
+
+   /**
+    * Loads a snapshot saved by save.
+    *
+    * @param file the snapshot file
+    * @return the snapshot, or null if the file is missing or unreadable
+    */
+   public static CatalogSnapshot load(File file) {
+      if (!file.isFile()) {
+         return null;
+      }
+      try {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+         try {
+            if (in.readInt() != VERSION) {
+               return null;
+            }
+            int numRows = in.readInt();
+            List<List<String>> rows = new ArrayList<List<String>>(numRows);
+            for (int r = 0; r < numRows; r++) {
+               List<String> row = new ArrayList<String>(COLUMNS.size());
+               for (int i = 0; i < COLUMNS.size(); i++) {
+                  row.add(in.readBoolean() ? in.readUTF() : null);
+               }
+               rows.add(row);
+            }
+            return new CatalogSnapshot(rows);
+         }finally {
+            in.close();
+         }//end try
+      }catch (IOException e) {
+         // a damaged snapshot is as good as none, it is rewritten on revalidation
+         return null;
+      }//end try
+   }//end load
+
+   /**
+    * Saves the snapshot, replacing the file only once it is fully written.
+    *
+    * @param file the snapshot file
+    * @throws java.io.IOException when the file cannot be written
+    */
+   public void save(File file) throws IOException {
+      File dir = file.getAbsoluteFile().getParentFile();
+      if (dir != null) {
+         dir.mkdirs();
+      }
+      File tmp = new File(file.getPath() + ".tmp");
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+         out.writeInt(VERSION);
+         out.writeInt(_rows.size());
+         for (List<String> row : _rows) {
+            for (String value : row) {
+               out.writeBoolean(value != null);
+               if (value != null) {
+                  out.writeUTF(value);
+               }
+            }
+         }
+      }finally {
+         out.close();
+      }//end try
+      if (!tmp.renameTo(file)) {
+         file.delete();
+         if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+         }
+      }
+   }//end save
+
+   /**
+    * @return the distinct lower case genres of the catalog
+    */
+   public List<String> genres() {
+      return Collections.unmodifiableList(_genres);
+   }//end genres
+
+   /**
+    * @param other another snapshot
+    * @return true if both hold the same catalog rows
+    */
+   public boolean sameAs(CatalogSnapshot other) {
+      return other != null && _rows.equals(other._rows);
+   }//end sameAs
+
+   /**
+    * Prints the games matching the viewCatalog filters in the same layout as
+    * executeQueryAndPrintResult, ordered by price.
+    *
+    * @param genre lower case genre, or empty for all genres
+    * @param minPrice minimum price, or empty for no limit
+    * @param maxPrice maximum price, or empty for no limit
+    * @return the number of rows printed
+    */
+   public int print(String genre, String minPrice, String maxPrice) {
+      double min = minPrice.isEmpty() ? Double.NEGATIVE_INFINITY : Double.parseDouble(minPrice);
+      double max = maxPrice.isEmpty() ? Double.POSITIVE_INFINITY : Double.parseDouble(maxPrice);
+
+      List<List<String>> matches = new ArrayList<List<String>>();
+      for (List<String> row : _rows) {
+         double price = Double.parseDouble(row.get(3));
+         if ((genre.isEmpty() || row.get(2).toLowerCase().equals(genre)) && price >= min && price <= max) {
+            matches.add(row);
+         }
+      }
+      Collections.sort(matches, new Comparator<List<String>>() {
+         public int compare(List<String> a, List<String> b) {
+            return Double.compare(Double.parseDouble(a.get(3)), Double.parseDouble(b.get(3)));
+         }
+      });
+
+      if (!matches.isEmpty()) {
+         for (String column : COLUMNS) {
+            System.out.print(column + "\t");
+         }
+         System.out.println();
+      }
+      for (List<String> row : matches) {
+         for (String value : row) {
+            System.out.print(value + "\t");
+         }
+         System.out.println();
+      }
+      return matches.size();
+   }//end print
+}//end CatalogSnapshot
@@ -0,0 +1,122 @@
+/*
+ * Connection routing for the Game Rental System
+ * =============================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class routes statements between a primary connection, which takes
+ * every write, and any number of read replica connections, which take the
+ * read-only queries.
+ *
+ * Read-your-writes is kept per session: once a session issues a write, its
+ * reads stay on the primary until the session ends (i.e. the user logs out),
+ * so a replica that is still replaying the write can never be observed.
+ *
+ */
+public class ConnectionRouter {
+
+   // reference to the physical connection that takes all writes.
+   private Connection _primary = null;
+
+   // physical connections to the read replicas, may be empty.
+   private List<Connection> _replicas = new ArrayList<Connection>();
+
+   // round robin cursor over the replicas.
+   private AtomicInteger _next = new AtomicInteger(0);
+
+   // set once the current session has written to the primary.
+   private volatile boolean _pinnedToPrimary = false;
+
+   /**
+    * Creates a new router
+    *
+    * @param primary the connection that takes all writes
+    * @param replicas the read-only connections, may be empty
+    */
+   public ConnectionRouter(Connection primary, List<Connection> replicas) {
+      this._primary = primary;
+      if (replicas != null) {
+         this._replicas.addAll(replicas);
+      }
+   }//end ConnectionRouter
+
+   /**
+    * Returns the connection a read-only statement should run on.  Reads go
+    * to the replicas in round robin order unless there are none or the
+    * session has already written to the primary.
+    *
+    * @return the connection to read from
+    */
+   public Connection forRead() {
+      if (this._pinnedToPrimary || this._replicas.isEmpty()) {
+         return this._primary;
+      }
+      int i = Math.floorMod(this._next.getAndIncrement(), this._replicas.size());
+      return this._replicas.get(i);
+   }//end forRead
+
+   /**
+    * Returns the primary connection for a write and pins the rest of the
+    * session's reads to the primary.
+    *
+    * @return the primary connection
+    */
+   public Connection forWrite() {
+      this._pinnedToPrimary = true;
+      return this._primary;
+   }//end forWrite
+
+   /**
+    * Returns the primary connection without pinning the session, for reads
+    * that only make sense on the primary (e.g. currval of a sequence).
+    *
+    * @return the primary connection
+    */
+   public Connection primary() {
+      return this._primary;
+   }//end primary
+
+   /**
+    * Ends the current session, letting reads go back to the replicas.
+    */
+   public void endSession() {
+      this._pinnedToPrimary = false;
+   }//end endSession
+
+   /**
+    * @return the number of read replicas behind this router
+    */
+   public int replicaCount() {
+      return this._replicas.size();
+   }//end replicaCount
+
+   /**
+    * Closes every physical connection held by this router.
+    */
+   public void close() {
+      for (Connection c : this._replicas) {
+         try {
+            c.close();
+         }catch (SQLException e) {
+            // ignored.
+         }//end try
+      }//end for
+      try {
+         if (this._primary != null) {
+            this._primary.close();
+         }//end if
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end close
+}//end ConnectionRouter
@@ -14,6 +14,7 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,8 +22,18 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.security.SecureRandom;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.Math;
 
 import java.util.Arrays;
@@ -34,8 +45,88 @@ import java.util.Arrays;
  */
 public class GameRental {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // routes reads to the replicas and writes to the primary connection,
+   // completed in the background when the client starts in fast-start mode.
+   private CompletableFuture<ConnectionRouter> _router = new CompletableFuture<ConnectionRouter>();
+
+   // locally persisted catalog and genre list, only used in fast-start mode.
+   private volatile CatalogSnapshot _snapshot = null;
+   private File _snapshotFile = null;
+
+   // set when the snapshot should be checked against the database; the menu
+   // thread does it between options, so it never shares the connection with
+   // another thread's statements
+   private volatile boolean _snapshotDue = false;
+
+   // genres accepted by viewCatalog when there is no catalog snapshot.
+   private static final List<String> DEFAULT_GENRES = Arrays.asList(
+         "sports", "action", "racing", "role-playing", "adventure", 
+         "simulation", "platform", "misc", "shooter", "puzzle", 
+         "fighting", "strategy"
+   );
+
+   // a user's orders from the OrderSummary projection, newest first; one
+   // range scan of the (login, orderTimestamp) index
+   static final String ORDER_SUMMARY_QUERY =
+      "SELECT rentalOrderID, orderTimestamp, dueDate, itemCount, totalPrice, games, trackingID, trackingStatus, lastUpdateDate " +
+      "FROM OrderSummary WHERE login = ? ORDER BY orderTimestamp DESC";
+
+   // the games column of OrderSummary for the order S, as load_data.sql builds it
+   private static final String ORDER_GAMES_SQL =
+      "SELECT string_agg(C.gameName || ' x' || G.unitsOrdered, ', ' ORDER BY G.gameID) " +
+      "FROM GamesInOrder G, Catalog C WHERE G.rentalOrderID = S.rentalOrderID AND C.gameID = G.gameID";
+
+   // login -> role, looked up once per session instead of on every menu action.
+   private final Map<String, String> _roles = new ConcurrentHashMap<String, String>();
+
+   // in-memory recommendations, built on first use and then kept current by
+   // the orders placed through this instance.
+   private volatile RecommendationEngine _recommendations = null;
+
+   // role of the logged in user, the request scheduler queues this
+   // instance's operations under it; null before log in
+   private volatile String _sessionRole = null;
+
+   // request scheduler class of the operation the current thread runs, and
+   // how many nested calls of it hold the scheduler slot (statements inside
+   // a transaction share the transaction's slot)
+   private static final ThreadLocal<RequestScheduler.OperationClass> _operationClass = new ThreadLocal<RequestScheduler.OperationClass>() {
+      protected RequestScheduler.OperationClass initialValue() {
+         return RequestScheduler.OperationClass.STANDARD;
+      }
+   };
+   private static final ThreadLocal<int[]> _admitted = new ThreadLocal<int[]>() {
+      protected int[] initialValue() {
+         return new int[1];
+      }
+   };
+
+   // request scheduler class of each user menu option; viewCatalog refines
+   // its class once it knows the filters
+   private static final Map<Integer, RequestScheduler.OperationClass> OPTION_CLASSES = new HashMap<Integer, RequestScheduler.OperationClass>();
+   static {
+      OPTION_CLASSES.put(1, RequestScheduler.OperationClass.CHEAP);      // viewProfile
+      OPTION_CLASSES.put(2, RequestScheduler.OperationClass.CHEAP);      // updateProfile
+      OPTION_CLASSES.put(3, RequestScheduler.OperationClass.STANDARD);   // viewCatalog
+      OPTION_CLASSES.put(4, RequestScheduler.OperationClass.CHEAP);      // placeOrder
+      OPTION_CLASSES.put(5, RequestScheduler.OperationClass.HEAVY);      // viewAllOrders
+      OPTION_CLASSES.put(6, RequestScheduler.OperationClass.STANDARD);   // viewRecentOrders
+      OPTION_CLASSES.put(7, RequestScheduler.OperationClass.CHEAP);      // viewOrderInfo
+      OPTION_CLASSES.put(8, RequestScheduler.OperationClass.CHEAP);      // viewTrackingInfo
+      OPTION_CLASSES.put(9, RequestScheduler.OperationClass.STANDARD);   // updateTrackingInfo
+      OPTION_CLASSES.put(10, RequestScheduler.OperationClass.STANDARD);  // updateCatalog
+      OPTION_CLASSES.put(11, RequestScheduler.OperationClass.CHEAP);     // updateUser
+      OPTION_CLASSES.put(12, RequestScheduler.OperationClass.HEAVY);     // viewRecommendations
+      OPTION_CLASSES.put(13, RequestScheduler.OperationClass.CHEAP);     // viewMyRentals
+   }
+
+   // last timestamp handed out for order and tracking IDs, kept strictly
+   // increasing so concurrent clients in the same millisecond never collide.
+   private static final AtomicLong _lastIdStamp = new AtomicLong(0);
+
+   // random ID of this process, put in front of the stamp so clients in
+   // different JVMs (other terminals, load generators) never collide either
+   private static final String ID_NODE = String.format("%08x", new SecureRandom().nextInt());
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -52,16 +143,8 @@ public class GameRental {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public GameRental(String dbname, String dbport, String user, String passwd) throws SQLException {
-
-      System.out.print("Connecting to database...");
       try{
-         // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-         System.out.println ("Connection URL: " + url + "\n");
-
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
-         System.out.println("Done");
+         this._router.complete(connect(dbname, dbport, user, passwd, true));
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
@@ -69,6 +152,127 @@ public class GameRental {
       }//end catch
    }//end GameRental
 
+   // used by startInBackground, the connection is opened later
+   private GameRental() {
+   }//end GameRental
+
+   /**
+    * Creates a new instance of GameRental store without waiting for the
+    * database.  The JDBC driver is loaded and the connection opened on a
+    * background thread; the first statement waits for it if needed.  The
+    * catalog snapshot is loaded from disk right away and revalidated against
+    * the database by checkConnection once connected.
+    *
+    * @param dbname the name of the database
+    * @param dbport the port of the database server
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param snapshotFile where the catalog snapshot is kept
+    * @return the new instance
+    */
+   public static GameRental startInBackground(final String dbname, final String dbport, final String user,
+                                              final String passwd, File snapshotFile) {
+      final GameRental esql = new GameRental();
+      esql._snapshotFile = snapshotFile;
+      esql._snapshot = CatalogSnapshot.load(snapshotFile);
+
+      Thread connector = new Thread(new Runnable() {
+         public void run() {
+            try {
+               esql._router.complete(connect(dbname, dbport, user, passwd, false));
+               esql._snapshotDue = true;
+            }catch (Exception e) {
+               // reported by the menu thread, the user may be typing
+               esql._router.completeExceptionally(e);
+            }//end try
+         }
+      }, "db-connect");
+      connector.setDaemon(true);
+      connector.start();
+      return esql;
+   }//end startInBackground
+
+   // loads the driver and opens the primary and replica connections
+   private static ConnectionRouter connect(String dbname, String dbport, String user, String passwd, boolean verbose)
+         throws ClassNotFoundException, SQLException {
+      if (verbose) {
+         System.out.print("Connecting to database...");
+      }
+      // use postgres JDBC driver, whichever version is on the classpath.
+      JdbcOptions.loadDriver ();
+
+      // constructs the connection URL
+      String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+      if (verbose) {
+         System.out.println ("Connection URL: " + url + "\n");
+         System.out.println ("JDBC driver: " + JdbcOptions.describe(url));
+      }
+
+      // obtain a physical connection
+      Connection primary = DriverManager.getConnection(url, JdbcOptions.connectionProperties(url, user, passwd));
+
+      // obtain a read-only connection to every configured replica
+      List<Connection> replicas = new ArrayList<Connection>();
+      String replicaUrls = System.getProperty("gamerental.replicas", "");
+      for (String replicaUrl : replicaUrls.split(",")) {
+         replicaUrl = replicaUrl.trim();
+         if (replicaUrl.isEmpty()) {
+            continue;
+         }
+         try {
+            Connection replica = DriverManager.getConnection(replicaUrl, JdbcOptions.connectionProperties(replicaUrl, user, passwd));
+            replica.setReadOnly(true);
+            replicas.add(replica);
+            if (verbose) {
+               System.out.println("Replica URL: " + replicaUrl);
+            }
+         }catch (SQLException e) {
+            // a missing replica only costs us read capacity
+            System.err.println("Skipping replica " + replicaUrl + ": " + e.getMessage());
+         }//end try
+      }//end for
+
+      if (verbose) {
+         System.out.println("Done");
+      }
+      return new ConnectionRouter(primary, replicas);
+   }//end connect
+
+   // waits for the connections if they are still being opened
+   private ConnectionRouter router() throws SQLException {
+      try {
+         return this._router.join();
+      }catch (CompletionException e) {
+         throw new SQLException("Unable to Connect to Database: " + e.getCause().getMessage(), e.getCause());
+      }//end try
+   }//end router
+
+   /**
+    * @return true once the database connection is open
+    */
+   public boolean isConnected() {
+      return this._router.isDone() && !this._router.isCompletedExceptionally();
+   }//end isConnected
+
+   /**
+    * Method to do, on the menu thread, what the background connection of
+    * startInBackground leaves to it: report a failed connection and
+    * revalidate the catalog snapshot once connected.  Does nothing while the
+    * connection is still being opened.
+    *
+    * @throws java.sql.SQLException when the database could not be reached
+    */
+   public void checkConnection() throws SQLException {
+      if (!this._router.isDone()) {
+         return;
+      }
+      router();
+      if (_snapshotDue) {
+         _snapshotDue = false;
+         revalidateSnapshot();
+      }
+   }//end checkConnection
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -77,14 +281,43 @@ public class GameRental {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      admit ();
+      try {
+         // creates a statement object on the primary
+         Statement stmt = router().forWrite().createStatement ();
+
+         // issues the update instruction
+         stmt.executeUpdate (sql);
+
+         // close the instruction
+         stmt.close ();
+      } finally {
+         release ();
+      }
+   }//end executeUpdate
+
+   /**
+    * Method to execute an update SQL statement with parameters.  The values
+    * are bound to the '?' placeholders of the statement in order.
+    *
+    * @param sql the input SQL string with '?' placeholders
+    * @param params the values of the placeholders
+    * @throws java.sql.SQLException when update failed
+    */
+   public void executeUpdate (String sql, Object... params) throws SQLException {
+      admit ();
+      try {
+         // creates a prepared statement object on the primary
+         PreparedStatement stmt = prepare (router().forWrite(), sql, params);
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         stmt.executeUpdate ();
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+      } finally {
+         release ();
+      }
    }//end executeUpdate
 
    /**
@@ -97,12 +330,48 @@ public class GameRental {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      admit ();
+      try {
+         // creates a statement object, reads may be served by a replica
+         Statement stmt = router().forRead().createStatement ();
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
 
+         int rowCount = printResult (rs);
+         stmt.close();
+         return rowCount;
+      } finally {
+         release ();
+      }
+   }//end executeQuery
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) with
+    * parameters and output the results to standard out.  The values are
+    * bound to the '?' placeholders of the query in order.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values of the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      admit ();
+      try {
+         // creates a prepared statement object, reads may be served by a replica
+         PreparedStatement stmt = prepare (router().forRead(), query, params);
+
+         int rowCount = printResult (stmt.executeQuery ());
+         stmt.close();
+         return rowCount;
+      } finally {
+         release ();
+      }
+   }//end executeQueryAndPrintResult
+
+   // outputs a result set to standard out and returns the number of rows
+   private static int printResult (ResultSet rs) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
@@ -126,9 +395,8 @@ public class GameRental {
          System.out.println ();
          ++rowCount;
       }//end while
-      stmt.close();
       return rowCount;
-   }//end executeQuery
+   }//end printResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -140,19 +408,54 @@ public class GameRental {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      admit ();
+      try {
+         // creates a statement object, reads may be served by a replica
+         Statement stmt = router().forRead().createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+         List<List<String>> result = readResult (rs);
+         stmt.close ();
+         return result;
+      } finally {
+         release ();
+      }
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) with
+    * parameters and return the results as a list of records.  The values
+    * are bound to the '?' placeholders of the query in order.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values of the placeholders
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      admit ();
+      try {
+         // creates a prepared statement object, reads may be served by a replica
+         PreparedStatement stmt = prepare (router().forRead(), query, params);
+
+         List<List<String>> result = readResult (stmt.executeQuery ());
+         stmt.close ();
+         return result;
+      } finally {
+         release ();
+      }
+   }//end executeQueryAndReturnResult
 
+   // reads a result set into a list of records
+   private static List<List<String>> readResult (ResultSet rs) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
        */
       ResultSetMetaData rsmd = rs.getMetaData ();
       int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
 
       // iterates through the result set and saves the data returned by the query.
       boolean outputHeader = false;
@@ -163,9 +466,8 @@ public class GameRental {
 			record.add(rs.getString (i));
         result.add(record);
       }//end while
-      stmt.close ();
       return result;
-   }//end executeQueryAndReturnResult
+   }//end readResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -176,20 +478,190 @@ public class GameRental {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+       admit ();
+       try {
+          // creates a statement object, reads may be served by a replica
+          Statement stmt = router().forRead().createStatement ();
+
+          // issues the query instruction
+          ResultSet rs = stmt.executeQuery (query);
+
+          int rowCount = 0;
+
+          // iterates through the result set and count nuber of results.
+          while (rs.next()){
+             rowCount++;
+          }//end while
+          stmt.close ();
+          return rowCount;
+       } finally {
+          release ();
+       }
+   }
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) with
+    * parameters and return the number of results.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values of the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+       admit ();
+       try {
+          // creates a prepared statement object, reads may be served by a replica
+          PreparedStatement stmt = prepare (router().forRead(), query, params);
+
+          ResultSet rs = stmt.executeQuery ();
+
+          int rowCount = 0;
+
+          // iterates through the result set and count nuber of results.
+          while (rs.next()){
+             rowCount++;
+          }//end while
+          stmt.close ();
+          return rowCount;
+       } finally {
+          release ();
+       }
+   }
 
-       int rowCount = 0;
+   /**
+    * Receives the rows of streamQuery one at a time.
+    */
+   public interface ResultHandler {
+      // called once, before the first row
+      void columns (ResultSetMetaData rsmd) throws SQLException, IOException;
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+      // called for every row, rs is positioned on the row
+      void row (ResultSet rs) throws SQLException, IOException;
+   }
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) through
+    * a server-side cursor.  Rows are fetched fetchSize at a time and handed
+    * to the handler, so a result of any size is never held in memory.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param fetchSize the number of rows fetched per round trip
+    * @param handler receives the column metadata and then each row
+    * @param params the values of the placeholders
+    * @return the number of rows streamed
+    * @throws java.sql.SQLException when failed to execute the query
+    * @throws java.io.IOException when the handler fails to write a row
+    */
+   public long streamQuery (String query, int fetchSize, ResultHandler handler, Object... params) throws SQLException, IOException {
+      // holds one scheduler slot for the whole stream
+      admit ();
+      // reads may be served by a replica; cursors only live inside a transaction
+      Connection connection = router().forRead();
+      try {
+         connection.setAutoCommit (false);
+      } catch (SQLException e) {
+         release ();
+         throw e;
+      }
+      Exception failure = null;
+      try {
+         // an explicit cursor works the same with every driver version
+         try (PreparedStatement declare = prepare (connection, "DECLARE stream_cursor NO SCROLL CURSOR FOR " + query, params)) {
+            declare.execute ();
+         }
+
+         try (Statement fetch = connection.createStatement ()) {
+            fetch.setFetchSize (fetchSize);
+            long rowCount = 0;
+            boolean first = true;
+            while (true) {
+               int fetched = 0;
+               try (ResultSet rs = fetch.executeQuery ("FETCH FORWARD " + fetchSize + " FROM stream_cursor")) {
+                  if (first) {
+                     handler.columns (rs.getMetaData ());
+                     first = false;
+                  }
+                  while (rs.next ()) {
+                     handler.row (rs);
+                     fetched++;
+                  }
+               }
+               rowCount += fetched;
+               if (fetched < fetchSize) {
+                  return rowCount;
+               }
+            }
+         }
+      } catch (Exception e) {
+         failure = e;
+         throw e;
+      } finally {
+         // ends the read-only transaction, which also closes the cursor; a
+         // failure here must not hide the one that ended the stream
+         try {
+            connection.rollback ();
+            connection.setAutoCommit (true);
+         } catch (SQLException e) {
+            if (failure == null) {
+               throw e;
+            }
+            failure.addSuppressed (e);
+         } finally {
+            release ();
+         }
+      }
+   }//end streamQuery
+
+   // prepares a statement and binds its parameters; a current driver turns
+   // statements that are run repeatedly into server-side prepared statements
+   private static PreparedStatement prepare (Connection connection, String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = connection.prepareStatement (sql);
+      for (int i = 0; i < params.length; i++) {
+         stmt.setObject (i + 1, params[i]);
+      }
+      return stmt;
+   }
+
+   // waits for a slot of the shared request scheduler, if it is on, unless
+   // the current thread already holds one for an enclosing call
+   private void admit () throws SQLException {
+      RequestScheduler scheduler = RequestScheduler.shared ();
+      int[] admitted = _admitted.get ();
+      if (scheduler != null && admitted[0] == 0) {
+         scheduler.admit (_sessionRole, _operationClass.get ());
+      }
+      admitted[0]++;
+   }
+
+   // gives the slot taken by admit back once the outermost call is done
+   private void release () {
+      RequestScheduler scheduler = RequestScheduler.shared ();
+      int[] admitted = _admitted.get ();
+      admitted[0]--;
+      if (scheduler != null && admitted[0] == 0) {
+         scheduler.release ();
+      }
+   }
+
+   /**
+    * Sets the request scheduler class of the operations the current thread
+    * runs from now on.
+    *
+    * @param operationClass how expensive the operations are
+    */
+   public void setOperationClass (RequestScheduler.OperationClass operationClass) {
+      _operationClass.set (operationClass);
+   }
+
+   /**
+    * Sets the role the request scheduler queues this instance's operations
+    * under, as stored in Users.role.
+    *
+    * @param role the role of the logged in user, or null
+    */
+   public void setSessionRole (String role) {
+      this._sessionRole = role == null ? null : role.trim ();
    }
 
    /**
@@ -202,25 +674,39 @@ public class GameRental {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
-
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+	admit ();
+	try {
+		// currval is session state, so it has to be read from the primary
+		Statement stmt = router().primary().createStatement ();
+
+		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+		if (rs.next())
+			return rs.getInt(1);
+		return -1;
+	} finally {
+		release ();
+	}
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to end the current user session.  Reads that were pinned to the
+    * primary to see the session's own writes may go to the replicas again.
+    */
+   public void endSession(){
+      this._roles.clear ();
+      this._sessionRole = null;
+      if (isConnected()){
+         this._router.join().endSession ();
+      }//end if
+   }//end endSession
+
+   /**
+    * Method to close the physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      if (isConnected()){
+         this._router.join().close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -241,17 +727,24 @@ public class GameRental {
       Greeting();
       GameRental esql = null;
       try{
-         // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
          // instantiate the GameRental object and creates a physical
          // connection.
          String dbname = args[0];
          String dbport = args[1];
          String user = args[2];
-         esql = new GameRental (dbname, dbport, user, "");
+         if (Boolean.getBoolean("gamerental.fastStart")) {
+            // render the menu while the driver loads and the connection opens
+            File snapshotFile = new File(System.getProperty("gamerental.snapshot",
+               System.getProperty("user.home") + File.separator + ".gamerental" + File.separator + "catalog.snapshot"));
+            esql = GameRental.startInBackground (dbname, dbport, user, "", snapshotFile);
+         }
+         else {
+            esql = new GameRental (dbname, dbport, user, "");
+         }
 
          boolean keepon = true;
          while(keepon) {
+            esql.checkConnection();
             // These are sample SQL statements
             System.out.println();
             System.out.println(
@@ -263,6 +756,8 @@ public class GameRental {
             System.out.println("9. < EXIT");
             System.out.println();
             String authorizedUser = null;
+            // account operations are short and never wait behind reports
+            esql.setOperationClass(RequestScheduler.OperationClass.CHEAP);
             switch (readChoice()){
                case 1: CreateUser(esql); break;
                case 2: authorizedUser = LogIn(esql); break;
@@ -272,6 +767,7 @@ public class GameRental {
             if (authorizedUser != null) {
               boolean usermenu = true;
               while(usermenu) {
+                esql.checkConnection();
                 System.out.println();
                 System.out.println(
                                     "\n\n ---------\n" +
@@ -292,12 +788,17 @@ public class GameRental {
                 //the following functionalities basically used by managers
                 System.out.println("10. Update Catalog");
                 System.out.println("11. Update User");
+                System.out.println("12. View Recommendations");
+                System.out.println("13. View My Rentals");
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
                 System.out.println();
 
-                switch (readChoice()){
+                int choice = readChoice();
+                RequestScheduler.OperationClass operationClass = OPTION_CLASSES.get(choice);
+                esql.setOperationClass(operationClass != null ? operationClass : RequestScheduler.OperationClass.STANDARD);
+                switch (choice){
                    case 1: viewProfile(esql, authorizedUser); break;
                    case 2: updateProfile(esql); break;
                    case 3: viewCatalog(esql); break;
@@ -316,10 +817,12 @@ public class GameRental {
                      }
                      break;
                    case 11: updateUser(esql); break;
+                   case 12: viewRecommendations(esql, authorizedUser); break;
+                   case 13: viewMyRentals(esql, authorizedUser); break;
 
 
 
-                   case 20: usermenu = false; break;
+                   case 20: usermenu = false; esql.endSession(); break;
                    default : System.out.println("Unrecognized choice! Try again!"); break;
                 }
               }
@@ -439,9 +942,8 @@ public class GameRental {
             return null;
         }
 
-        String query = String.format("SELECT * FROM Users WHERE login = '%s' AND password = '%s'", login, password);
-        int numUser = esql.executeQuery(query);
-        if (numUser > 0) {
+        if (esql.authenticate(login, password)) {
+            esql.setSessionRole(esql.getUserRole(login));
             System.out.println("User has been logged in!");
             return login;
         } else {
@@ -530,11 +1032,7 @@ public class GameRental {
    public static void viewCatalog(GameRental esql) {
       try {
          // List of valid genres
-         List<String> genres = Arrays.asList(
-               "sports", "action", "racing", "role-playing", "adventure", 
-               "simulation", "platform", "misc", "shooter", "puzzle", 
-               "fighting", "strategy"
-         );
+         List<String> genres = esql.genres();
 
          // Input validation for genres
          String genre = "";
@@ -555,42 +1053,24 @@ public class GameRental {
          String maxPrice = in.readLine();
          System.out.println();
 
-         String catalogQuery = "SELECT * FROM Catalog";
-         boolean valid = false;
-         
-         // If any option is provided, add the given condition
-         if (!genre.isEmpty()) {
-            catalogQuery += " WHERE LOWER(genre) = '" + genre + "'";
-            valid = true;
-         }
-         
-         if (!minPrice.isEmpty()) {
-            if (!valid) {
-               catalogQuery += " WHERE";
-               valid = true;
-            }
-            else {
-               catalogQuery += " AND";
-            }
-            catalogQuery += " price >= " + minPrice;
+         // Serve the first browse from the snapshot if the database is still connecting
+         CatalogSnapshot snapshot = esql._snapshot;
+         if (!esql.isConnected() && snapshot != null) {
+            System.out.println("Showing saved catalog while connecting to the database");
+            snapshot.print(genre, minPrice, maxPrice);
+            return;
          }
 
-         if (!maxPrice.isEmpty()) {
-            if (!valid) {
-              catalogQuery += " WHERE";
-            }
-            else {
-               catalogQuery += " AND";
-            }
-            catalogQuery += " price <= " + maxPrice;
-         }
-         
-         catalogQuery += " ORDER BY price";
+         List<Object> params = new ArrayList<Object>();
+         String catalogQuery = catalogQuery(genre, minPrice, maxPrice, params);
+
+         // the unfiltered catalog is a report, not a browse
+         esql.setOperationClass(params.isEmpty() ? RequestScheduler.OperationClass.HEAVY : RequestScheduler.OperationClass.STANDARD);
          
          // Print query to check syntax issues
-         System.out.println("Executing query: " + catalogQuery);
+         System.out.println("Executing query: " + catalogQuery + " " + params);
          
-         esql.executeQueryAndPrintResult(catalogQuery);
+         esql.executeQueryAndPrintResult(catalogQuery, params.toArray());
 
       } catch (Exception e) {
          System.err.println(e.getMessage());
@@ -605,15 +1085,9 @@ public class GameRental {
          System.out.print("\tInput number of games: ");
          int numOfGames = Integer.parseInt(in.readLine());
 
-         double totalPrice = 0.0;
-         String rentalOrderID = "RO" + System.currentTimeMillis();
-         String orderTimestamp = "current_timestamp";
-         String dueDate = "current_timestamp + interval '7 days'";
-
          // Collect + Store game details before inserting
          List<String> gameIDs = new ArrayList<>();
          List<Integer> unitsOrderedList = new ArrayList<>();
-         List<Double> gamePrices = new ArrayList<>();
 
          for (int i = 0; i < numOfGames; i++) {
             System.out.print("\tInput game ID: ");
@@ -621,35 +1095,11 @@ public class GameRental {
             System.out.print("\tInput units ordered: ");
             int unitsOrdered = Integer.parseInt(in.readLine());
 
-            String gameQuery = String.format("SELECT price FROM Catalog WHERE gameID = '%s'", gameID);
-            List<List<String>> gameResult = esql.executeQueryAndReturnResult(gameQuery);
-            double gamePrice = Double.parseDouble(gameResult.get(0).get(0));
-
-            totalPrice += gamePrice * unitsOrdered;
-
             gameIDs.add(gameID);
             unitsOrderedList.add(unitsOrdered);
-            gamePrices.add(gamePrice);
          }
 
-         // Insert rental order into RentalOrder table
-         String rentalOrderQuery = String.format("INSERT INTO RentalOrder (rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate) " + "VALUES ('%s', '%s', %d, %f, %s, %s)", rentalOrderID, login, numOfGames, totalPrice, orderTimestamp, dueDate);
-
-         esql.executeUpdate(rentalOrderQuery);
-
-         // Insert each game into GamesInOrder table
-         for (int i = 0; i < numOfGames; i++) {
-               String gamesInOrderQuery = String.format("INSERT INTO GamesInOrder (rentalOrderID, gameID, unitsOrdered) " + "VALUES ('%s', '%s', %d)", rentalOrderID, gameIDs.get(i), unitsOrderedList.get(i));
-
-               esql.executeUpdate(gamesInOrderQuery);
-         }
-
-         // Generate unique tracking ID
-         String trackingID = "T" + System.currentTimeMillis();
-
-         // Insert tracking information into TrackingInfo table
-         String trackingQuery = String.format("INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, additionalComments, lastUpdateDate) " + "VALUES ('%s', '%s', 'Processing', 'Warehouse', 'Default Courier', '', current_timestamp)", trackingID, rentalOrderID);
-         esql.executeUpdate(trackingQuery);
+         String trackingID = esql.placeRentalOrder(login, gameIDs, unitsOrderedList);
 
          System.out.println("Order has been placed with Tracking ID: " + trackingID);
 
@@ -758,9 +1208,7 @@ public class GameRental {
             System.out.print("\tInput new additional comments: ");
             String additionalComments = in.readLine();
 
-            String trackingQuery = String.format("UPDATE TrackingInfo SET status = '%s', currentLocation = '%s', courierName = '%s', additionalComments = '%s', lastUpdateDate = current_timestamp WHERE trackingID = '%s'", status, currentLocation, courierName, additionalComments, trackingID);
-
-            esql.executeUpdate(trackingQuery);
+            esql.updateTracking(trackingID, status, currentLocation, courierName, additionalComments);
 
             System.out.println("Tracking information has been updated!");
 
@@ -789,7 +1237,21 @@ public class GameRental {
 
             String catalogQuery = String.format("UPDATE Catalog SET gameName = '%s', genre = '%s', price = %s, description = '%s', imageURL = '%s' WHERE gameID = '%s'", gameName, genre, price, description, imageURL, gameID);
 
-            esql.executeUpdate(catalogQuery);
+            // Game names in the order summaries change with the catalog
+            esql.beginTransaction();
+            try {
+               esql.executeUpdate(catalogQuery);
+               esql.executeUpdate("UPDATE OrderSummary S SET games = (" + ORDER_GAMES_SQL + ") " +
+                                  "WHERE S.rentalOrderID IN (SELECT rentalOrderID FROM GamesInOrder WHERE gameID = ?)", gameID);
+            } catch (SQLException | RuntimeException e) {
+               esql.abortTransaction(e);
+               throw e;
+            }
+            esql.endTransaction(true);
+            if (esql._recommendations != null) {
+               esql._recommendations.renameGame(gameID, gameName);
+            }
+            esql.revalidateSnapshotLater();
 
             System.out.println("Catalog has been updated!");
 
@@ -815,6 +1277,7 @@ public class GameRental {
             String usersQuery = String.format("UPDATE Users SET role = '%s', phoneNum = '%s', numOverDueGames = %d WHERE login = '%s'", role, phoneNum, numOverDueGames, login);
 
             esql.executeUpdate(usersQuery);
+            esql._roles.remove(login);
 
             System.out.println("User information has been updated!");
 
@@ -824,27 +1287,327 @@ public class GameRental {
    }
 
 
+   public static void viewMyRentals(GameRental esql, String authorizedUser) {
+      try {
+         int numOrders = esql.executeQueryAndPrintResult(ORDER_SUMMARY_QUERY, authorizedUser);
+         if (numOrders == 0) {
+            System.out.println("No rental orders found.");
+         }
+
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      }
+   }
+
+   public static void viewRecommendations(GameRental esql, String authorizedUser) {
+      try {
+         System.out.print("\tInput game ID (press 'Enter' for your personal recommendations): ");
+         String gameID = in.readLine().trim();
+
+         List<List<String>> games;
+         if (gameID.isEmpty()) {
+            games = esql.recommendations().forUser(authorizedUser, 10);
+            System.out.println("Recommended for " + authorizedUser + ":");
+         }
+         else {
+            games = esql.recommendations().alsoRented(gameID, 10);
+            System.out.println("Customers who rented " + gameID + " also rented:");
+         }
+
+         if (games.isEmpty()) {
+            System.out.println("No recommendations found.");
+            return;
+         }
+         System.out.println("gameid\tgamename\tscore\t");
+         for (List<String> game : games) {
+            System.out.println(game.get(0) + "\t" + game.get(1) + "\t" + game.get(2) + "\t");
+         }
+
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      }
+   }
+
+
    // Additional Helper Functions
 
-   // Returns user's role (utilizes similar method to executeUpdate)
-   public String getUserRole(String login) throws SQLException {
-      String role = null;
-      String query = String.format("SELECT role FROM Users WHERE login = '%s'", login);
+   // Returns the genres viewCatalog accepts, from the catalog snapshot if there is one
+   public List<String> genres() {
+      CatalogSnapshot snapshot = _snapshot;
+      return snapshot != null ? snapshot.genres() : DEFAULT_GENRES;
+   }
+
+   // Reloads the catalog snapshot from the database and saves it if it changed
+   public void revalidateSnapshot() {
+      if (_snapshotFile == null) {
+         return;
+      }
+      try {
+         CatalogSnapshot fresh = CatalogSnapshot.fromDatabase(this);
+         if (!fresh.sameAs(_snapshot)) {
+            _snapshot = fresh;
+            fresh.save(_snapshotFile);
+         }
+      } catch (Exception e) {
+         // the old snapshot stays in use, it is retried on the next start
+         System.err.println("Unable to refresh catalog snapshot: " + e.getMessage());
+      }
+   }
+
+   // Same as revalidateSnapshot, done by checkConnection before the next menu
+   public void revalidateSnapshotLater() {
+      _snapshotDue = _snapshotFile != null;
+   }
+
+   // Returns the recommendation engine, building it from the database on first use
+   // and adding the orders other clients placed since on later uses
+   public RecommendationEngine recommendations() throws SQLException {
+      if (_recommendations == null) {
+         synchronized (this) {
+            if (_recommendations == null) {
+               _recommendations = RecommendationEngine.build(this);
+               return _recommendations;
+            }
+         }
+      }
+      _recommendations.catchUp(this);
+      return _recommendations;
+   }
 
-      // Create Statement object
-      Statement stmt = this._connection.createStatement();
+   // Data access behind the menu options. These take their input as arguments
+   // instead of reading the keyboard, so other tools (e.g. LoadGenerator) can
+   // drive the same SQL as the console client.
+
+   // Returns true if the login and password match an existing user
+   public boolean authenticate(String login, String password) throws SQLException {
+      return executeQuery("SELECT * FROM Users WHERE login = ? AND password = ?", login, password) > 0;
+   }
+
+   // Builds the catalog query for the given filters (empty string means no filter),
+   // adding the values of its '?' placeholders to params
+   public static String catalogQuery(String genre, String minPrice, String maxPrice, List<Object> params) {
+      String catalogQuery = "SELECT * FROM Catalog";
+      boolean valid = false;
       
-      // Execute query instruction
-      ResultSet rs = stmt.executeQuery(query);
+      // If any option is provided, add the given condition
+      if (!genre.isEmpty()) {
+         catalogQuery += " WHERE LOWER(genre) = ?";
+         params.add(genre);
+         valid = true;
+      }
       
-      // Gets role from result set
-      if (rs.next()) {
-         role = rs.getString("role");
+      if (!minPrice.isEmpty()) {
+         if (!valid) {
+            catalogQuery += " WHERE";
+            valid = true;
+         }
+         else {
+            catalogQuery += " AND";
+         }
+         catalogQuery += " price >= ?";
+         params.add(new BigDecimal(minPrice));
+      }
+
+      if (!maxPrice.isEmpty()) {
+         if (!valid) {
+           catalogQuery += " WHERE";
+         }
+         else {
+            catalogQuery += " AND";
+         }
+         catalogQuery += " price <= ?";
+         params.add(new BigDecimal(maxPrice));
       }
       
-      // close the statement
-      stmt.close();
+      catalogQuery += " ORDER BY price";
+      return catalogQuery;
+   }
+
+   // Places a rental order for the given games and returns its tracking ID
+   public String placeRentalOrder(String login, List<String> gameIDs, List<Integer> unitsOrderedList) throws SQLException {
+      int numOfGames = gameIDs.size();
+      BigDecimal totalPrice = BigDecimal.ZERO;
+      String idStamp = ID_NODE + "-" + nextIdStamp();
+      String rentalOrderID = "RO" + idStamp;
+
+      int itemCount = 0;
+      Map<String, String> gameLines = new TreeMap<String, String>();
+
+      for (int i = 0; i < numOfGames; i++) {
+         List<List<String>> gameResult = executeQueryAndReturnResult("SELECT gameName, price FROM Catalog WHERE gameID = ?", gameIDs.get(i));
+         BigDecimal gamePrice = new BigDecimal(gameResult.get(0).get(1));
+
+         totalPrice = totalPrice.add(gamePrice.multiply(BigDecimal.valueOf(unitsOrderedList.get(i))));
+         itemCount += unitsOrderedList.get(i);
+         gameLines.put(gameIDs.get(i), gameResult.get(0).get(0) + " x" + unitsOrderedList.get(i));
+      }
+
+      // Game list of the order summary, in gameID order like ORDER_GAMES_SQL
+      StringBuilder games = new StringBuilder();
+      for (String line : gameLines.values()) {
+         games.append(games.length() == 0 ? "" : ", ").append(line);
+      }
+
+      // Generate unique tracking ID
+      String trackingID = "T" + idStamp;
+
+      // The order, its games, its tracking row and its summary are written in one transaction
+      Connection connection = beginTransaction();
+      try {
+         // Insert rental order into RentalOrder table
+         executeUpdate("INSERT INTO RentalOrder (rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate) " +
+                       "VALUES (?, ?, ?, ?, current_timestamp, current_timestamp + interval '7 days')",
+                       rentalOrderID, login, numOfGames, totalPrice);
+
+         // Insert each game into GamesInOrder table as one batch (a single
+         // multi-row INSERT when the driver rewrites batched inserts)
+         PreparedStatement gamesInOrder = connection.prepareStatement(
+            "INSERT INTO GamesInOrder (rentalOrderID, gameID, unitsOrdered) VALUES (?, ?, ?)");
+         try {
+            for (int i = 0; i < numOfGames; i++) {
+               gamesInOrder.setString(1, rentalOrderID);
+               gamesInOrder.setString(2, gameIDs.get(i));
+               gamesInOrder.setInt(3, unitsOrderedList.get(i));
+               gamesInOrder.addBatch();
+            }
+            gamesInOrder.executeBatch();
+         } finally {
+            gamesInOrder.close();
+         }
+
+         // Insert tracking information into TrackingInfo table
+         executeUpdate("INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, additionalComments, lastUpdateDate) " +
+                       "VALUES (?, ?, 'Processing', 'Warehouse', 'Default Courier', '', current_timestamp)",
+                       trackingID, rentalOrderID);
+
+         // Insert the order summary, taking the timestamps the order was written with
+         executeUpdate("INSERT INTO OrderSummary (rentalOrderID, login, orderTimestamp, dueDate, noOfGames, totalPrice, itemCount, games, trackingID, trackingStatus, lastUpdateDate) " +
+                       "SELECT rentalOrderID, login, orderTimestamp, dueDate, noOfGames, totalPrice, ?, ?, ?, 'Processing', orderTimestamp " +
+                       "FROM RentalOrder WHERE rentalOrderID = ?",
+                       itemCount, games.toString(), trackingID, rentalOrderID);
+      } catch (SQLException | RuntimeException e) {
+         abortTransaction(e);
+         throw e;
+      }
+      endTransaction(true);
+
+      // count the new co-rentals without rebuilding the recommendations
+      if (_recommendations != null) {
+         _recommendations.recordOrder(rentalOrderID, login, gameIDs);
+      }
+
+      return trackingID;
+   }
+
+   // Updates the tracking information of a tracking ID
+   public void updateTracking(String trackingID, String status, String currentLocation, String courierName, String additionalComments) throws SQLException {
+      // The tracking row and the order summary change together; the update
+      // makes this the order's latest tracking row
+      beginTransaction();
+      try {
+         executeUpdate("UPDATE TrackingInfo SET status = ?, currentLocation = ?, courierName = ?, additionalComments = ?, lastUpdateDate = current_timestamp WHERE trackingID = ?",
+                       status, currentLocation, courierName, additionalComments, trackingID);
+         executeUpdate("UPDATE OrderSummary SET trackingID = ?, trackingStatus = ?, lastUpdateDate = current_timestamp " +
+                       "WHERE rentalOrderID = (SELECT rentalOrderID FROM TrackingInfo WHERE trackingID = ?)",
+                       trackingID, status, trackingID);
+      } catch (SQLException | RuntimeException e) {
+         abortTransaction(e);
+         throw e;
+      }
+      endTransaction(true);
+   }
+
+   // Returns a user's rental orders from the order summary, newest first
+   public List<List<String>> listRentals(String login) throws SQLException {
+      return executeQueryAndReturnResult(ORDER_SUMMARY_QUERY, login);
+   }
+
+   // Starts a transaction on the primary and returns its connection
+   public Connection beginTransaction() throws SQLException {
+      // the transaction's statements run under one scheduler slot, so a
+      // transaction holding row locks never waits for admission
+      admit();
+      try {
+         Connection connection = router().forWrite();
+         connection.setAutoCommit(false);
+         return connection;
+      } catch (SQLException e) {
+         release();
+         throw e;
+      }
+   }
+
+   // Commits the transaction begun by beginTransaction, or rolls it back
+   public void endTransaction(boolean commit) throws SQLException {
+      Connection connection = router().primary();
+      try {
+         if (commit) {
+            connection.commit();
+         }
+         else {
+            connection.rollback();
+         }
+      } finally {
+         try {
+            connection.setAutoCommit(true);
+         } finally {
+            release();
+         }
+      }
+   }
+
+   // Rolls back the transaction begun by beginTransaction after a failure; a
+   // failing rollback is attached to the failure instead of replacing it
+   public void abortTransaction(Exception failure) {
+      try {
+         endTransaction(false);
+      } catch (SQLException e) {
+         failure.addSuppressed(e);
+      }
+   }
+
+   // Returns a millisecond timestamp that is unique within this JVM, used
+   // with ID_NODE to generate rental order and tracking IDs
+   private static long nextIdStamp() {
+      while (true) {
+         long last = _lastIdStamp.get();
+         long next = Math.max(System.currentTimeMillis(), last + 1);
+         if (_lastIdStamp.compareAndSet(last, next)) {
+            return next;
+         }
+      }
+   }
+
+   // Returns user's role (utilizes similar method to executeUpdate), cached until the session ends
+   public String getUserRole(String login) throws SQLException {
+      String role = _roles.get(login);
+      if (role != null) {
+         return role;
+      }
+      String query = String.format("SELECT role FROM Users WHERE login = '%s'", login);
+
+      admit();
+      try {
+         // Create Statement object, reads may be served by a replica
+         Statement stmt = router().forRead().createStatement();
+         
+         // Execute query instruction
+         ResultSet rs = stmt.executeQuery(query);
+         
+         // Gets role from result set
+         if (rs.next()) {
+            role = rs.getString("role");
+         }
+         
+         // close the statement
+         stmt.close();
+      } finally {
+         release();
+      }
       
+      if (role != null) {
+         _roles.put(login, role);
+      }
       return role;
    }
-}//end GameRental
\ No newline at end of file
+}//end GameRental
\ No newline at end of file
@@ -0,0 +1,94 @@
+/*
+ * JDBC driver options for the Game Rental System
+ * ==============================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * This class builds the connection properties for whichever PostgreSQL JDBC
+ * driver is on the classpath.  The driver is picked at launch time by the
+ * jar the scripts put on the classpath (GAMERENTAL_JDBC_JAR).
+ *
+ * Current pgJDBC drivers (42.x) get the tuning properties of the deployment:
+ * every system property named gamerental.jdbc.&lt;name&gt; is passed to the
+ * driver as &lt;name&gt;, e.g. -Dgamerental.jdbc.prepareThreshold=1 or
+ * -Dgamerental.jdbc.binaryTransfer=false.  reWriteBatchedInserts is on unless
+ * the deployment turns it off, since placeOrder batches its GamesInOrder rows.
+ *
+ * The old pg73jdbc3 driver knows none of these properties, so it only gets
+ * the user and password and keeps working as before.
+ *
+ */
+public class JdbcOptions {
+
+   // prefix of the system properties passed through to a current driver
+   private static final String PREFIX = "gamerental.jdbc.";
+
+   // first major version of the current pgJDBC numbering
+   private static final int MODERN_MAJOR_VERSION = 42;
+
+   /**
+    * Loads the PostgreSQL JDBC driver found on the classpath.
+    *
+    * @throws java.lang.ClassNotFoundException when no driver is on the classpath
+    */
+   public static void loadDriver() throws ClassNotFoundException {
+      Class.forName("org.postgresql.Driver");
+   }//end loadDriver
+
+   /**
+    * @param url the connection URL
+    * @return true if the driver serving the URL is a current pgJDBC driver
+    * @throws java.sql.SQLException when no driver accepts the URL
+    */
+   public static boolean isModern(String url) throws SQLException {
+      return DriverManager.getDriver(url).getMajorVersion() >= MODERN_MAJOR_VERSION;
+   }//end isModern
+
+   /**
+    * @param url the connection URL
+    * @return the name and version of the driver serving the URL
+    * @throws java.sql.SQLException when no driver accepts the URL
+    */
+   public static String describe(String url) throws SQLException {
+      Driver driver = DriverManager.getDriver(url);
+      return driver.getClass().getName() + " " + driver.getMajorVersion() + "." + driver.getMinorVersion();
+   }//end describe
+
+   /**
+    * Builds the properties to connect with.
+    *
+    * @param url the connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @return the connection properties
+    * @throws java.sql.SQLException when no driver accepts the URL
+    */
+   public static Properties connectionProperties(String url, String user, String passwd) throws SQLException {
+      Properties props = new Properties();
+      props.setProperty("user", user);
+      props.setProperty("password", passwd);
+
+      if (!isModern(url)) {
+         return props;
+      }
+
+      props.setProperty("reWriteBatchedInserts", "true");
+      for (Map.Entry<Object, Object> e : System.getProperties().entrySet()) {
+         String name = e.getKey().toString();
+         if (name.startsWith(PREFIX) && name.length() > PREFIX.length()) {
+            props.setProperty(name.substring(PREFIX.length()), e.getValue().toString());
+         }
+      }
+      return props;
+   }//end connectionProperties
+}//end JdbcOptions
@@ -0,0 +1,721 @@
+/*
+ * Load generator for the Game Rental System
+ * =========================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class drives the GameRental data access methods with a workload built
+ * from the shipped data/*.csv files, so the system can be sized before it is
+ * deployed.
+ *
+ * Operations are issued open loop at a target rate by a single dispatcher and
+ * executed by N clients, each with its own GameRental connection.  Latency is
+ * measured from the time an operation was scheduled to start, so a saturated
+ * backend shows up as queueing delay instead of a lower offered rate.
+ *
+ * A run can record its operations to a trace file and a later run can replay
+ * that trace with the same timing, for regression comparisons between builds
+ * or configurations.
+ *
+ */
+public class LoadGenerator {
+
+   // operation kinds of the workload mix, in report order
+   static final String LOGIN = "login";
+   static final String BROWSE = "browse";
+   static final String ORDER = "order";
+   static final String TRACKING = "tracking";
+   static final String RENTALS = "rentals";
+   static final String REPORT = "report";
+   static final List<String> KINDS = Arrays.asList(LOGIN, BROWSE, ORDER, TRACKING, RENTALS, REPORT);
+
+   /**
+    * One operation of the workload: when it is due, relative to the start of
+    * the run, what it is and its arguments.
+    */
+   static class Op {
+      long offsetNanos;
+      String kind;
+      String[] args;
+
+      Op(long offsetNanos, String kind, String... args) {
+         this.offsetNanos = offsetNanos;
+         this.kind = kind;
+         this.args = args;
+      }
+
+      // trace line: offset in microseconds, kind, then the arguments, tab separated
+      String toTraceLine() {
+         StringBuilder sb = new StringBuilder();
+         sb.append(offsetNanos / 1000).append('\t').append(kind);
+         for (String arg : args) {
+            sb.append('\t').append(arg.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n"));
+         }
+         return sb.toString();
+      }
+
+      static Op fromTraceLine(String line) {
+         String[] fields = line.split("\t", -1);
+         String[] args = new String[fields.length - 2];
+         for (int i = 0; i < args.length; i++) {
+            args[i] = unescape(fields[i + 2]);
+         }
+         return new Op(Long.parseLong(fields[0]) * 1000, fields[1], args);
+      }
+
+      private static String unescape(String s) {
+         StringBuilder sb = new StringBuilder();
+         for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+               char n = s.charAt(++i);
+               sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n);
+            }
+            else {
+               sb.append(c);
+            }
+         }
+         return sb.toString();
+      }
+   }//end Op
+
+   /**
+    * The distributions the workload mix is sampled from, all taken from the
+    * data/*.csv files.  Lists that hold repeated entries (e.g. one game ID per
+    * rented unit) make uniform sampling follow the recorded popularity.
+    */
+   static class Workload {
+      List<String[]> users = new ArrayList<String[]>();        // login, password
+      List<String> activeLogins = new ArrayList<String>();     // one entry per recorded order
+      List<String> genres = new ArrayList<String>();           // one entry per catalog game
+      List<Double> prices = new ArrayList<Double>();           // one entry per catalog game
+      List<String> rentedGames = new ArrayList<String>();      // one entry per order line
+      List<Integer> unitsOrdered = new ArrayList<Integer>();   // one entry per order line
+      List<Integer> linesPerOrder = new ArrayList<Integer>();  // one entry per order
+      List<String> trackingIDs = new ArrayList<String>();
+      List<String> statuses = new ArrayList<String>();
+      List<String> locations = new ArrayList<String>();
+      List<String> couriers = new ArrayList<String>();
+
+      Map<String, String> passwords = new HashMap<String, String>();
+      int distinctGames = 0;
+
+      Workload(File dataDir) throws IOException {
+         for (String[] row : readCsv(new File(dataDir, "users.csv"))) {
+            users.add(new String[] { row[0], row[1] });
+            passwords.put(row[0], row[1]);
+         }
+         for (String[] row : readCsv(new File(dataDir, "catalog.csv"))) {
+            genres.add(row[2].toLowerCase());
+            prices.add(Double.parseDouble(row[3]));
+         }
+         for (String[] row : readCsv(new File(dataDir, "rentalorder.csv"))) {
+            if (passwords.containsKey(row[1])) {
+               activeLogins.add(row[1]);
+            }
+         }
+         Map<String, Integer> lines = new LinkedHashMap<String, Integer>();
+         for (String[] row : readCsv(new File(dataDir, "gamesinorder.csv"))) {
+            rentedGames.add(row[1]);
+            unitsOrdered.add(Integer.parseInt(row[2]));
+            Integer n = lines.get(row[0]);
+            lines.put(row[0], n == null ? 1 : n + 1);
+         }
+         linesPerOrder.addAll(lines.values());
+         distinctGames = new HashSet<String>(rentedGames).size();
+         for (String[] row : readCsv(new File(dataDir, "trackinginfo.csv"))) {
+            trackingIDs.add(row[0]);
+            statuses.add(row[2]);
+            locations.add(row[3]);
+            couriers.add(row[4]);
+         }
+         if (activeLogins.isEmpty()) {
+            for (String[] user : users) {
+               activeLogins.add(user[0]);
+            }
+         }
+      }
+
+      // samples one operation of the given kind
+      Op next(String kind, long offsetNanos, Random rnd) {
+         if (kind.equals(LOGIN)) {
+            String login = pick(activeLogins, rnd);
+            // a small share of logins are failed attempts
+            String password = rnd.nextInt(20) == 0 ? "wrong" + rnd.nextInt(1000) : passwords.get(login);
+            return new Op(offsetNanos, LOGIN, login, password);
+         }
+         if (kind.equals(BROWSE)) {
+            // browse by genre most of the time, sometimes the whole catalog,
+            // with a price range drawn from the catalog's own prices
+            String genre = rnd.nextInt(5) == 0 ? "" : pick(genres, rnd);
+            String minPrice = "";
+            String maxPrice = "";
+            if (rnd.nextBoolean()) {
+               double a = pick(prices, rnd);
+               double b = pick(prices, rnd);
+               minPrice = String.format("%.2f", Math.min(a, b));
+               maxPrice = String.format("%.2f", Math.max(a, b));
+            }
+            return new Op(offsetNanos, BROWSE, genre, minPrice, maxPrice);
+         }
+         if (kind.equals(ORDER)) {
+            int n = Math.max(1, Math.min(distinctGames, pick(linesPerOrder, rnd)));
+            List<String> args = new ArrayList<String>();
+            args.add(pick(activeLogins, rnd));
+            List<String> chosen = new ArrayList<String>();
+            while (chosen.size() < n) {
+               String gameID = pick(rentedGames, rnd);
+               // GamesInOrder is keyed by (rentalOrderID, gameID)
+               if (!chosen.contains(gameID)) {
+                  chosen.add(gameID);
+                  args.add(gameID);
+                  args.add(String.valueOf(pick(unitsOrdered, rnd)));
+               }
+            }
+            return new Op(offsetNanos, ORDER, args.toArray(new String[0]));
+         }
+         if (kind.equals(RENTALS)) {
+            return new Op(offsetNanos, RENTALS, pick(activeLogins, rnd));
+         }
+         if (kind.equals(REPORT)) {
+            // a manager's full order history of a customer, the busiest most often
+            return new Op(offsetNanos, REPORT, pick(activeLogins, rnd));
+         }
+         return new Op(offsetNanos, TRACKING, pick(trackingIDs, rnd), pick(statuses, rnd),
+                       pick(locations, rnd), pick(couriers, rnd), "load test");
+      }
+
+      private static <T> T pick(List<T> list, Random rnd) {
+         return list.get(rnd.nextInt(list.size()));
+      }
+   }//end Workload
+
+   /**
+    * Latencies and errors of one operation kind.
+    */
+   static class Stats {
+      private long[] latencies = new long[1024];
+      private int count = 0;
+      private int errors = 0;
+      private String firstError = null;
+
+      synchronized void record(long latencyNanos, Exception error) {
+         if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+         }
+         latencies[count++] = latencyNanos;
+         if (error != null) {
+            if (firstError == null) {
+               firstError = error.getMessage();
+            }
+            errors++;
+         }
+      }
+
+      synchronized int count() {
+         return count;
+      }
+
+      synchronized int errors() {
+         return errors;
+      }
+
+      synchronized String firstError() {
+         return firstError;
+      }
+
+      // latency percentile in milliseconds
+      synchronized double percentile(double p) {
+         if (count == 0) {
+            return 0;
+         }
+         long[] sorted = Arrays.copyOf(latencies, count);
+         Arrays.sort(sorted);
+         int i = (int) Math.ceil(p / 100.0 * count) - 1;
+         return sorted[Math.max(0, Math.min(count - 1, i))] / 1e6;
+      }
+   }//end Stats
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> followed by the options in usage()
+    */
+   public static void main(String[] args) {
+      // compares saved reports without a database
+      if (args.length == 3 && args[0].equals("--diff")) {
+         try {
+            printComparison(averageReports(args[1]), averageReports(args[2]));
+         }catch (Exception e) {
+            System.err.println(e.getMessage());
+         }//end try
+         return;
+      }
+      if (args.length < 3) {
+         usage();
+         return;
+      }
+
+      int clients = 16;
+      double rate = 100;
+      int duration = 60;
+      long seed = 42;
+      String dataDir = "data";
+      String mix = "login=30,browse=45,order=15,tracking=10";
+      String record = null;
+      String replay = null;
+      String report = null;
+      String compare = null;
+      try {
+         for (int i = 3; i < args.length; i++) {
+            String opt = args[i];
+            String val = args[++i];
+            if (opt.equals("--clients")) clients = Integer.parseInt(val);
+            else if (opt.equals("--rate")) rate = Double.parseDouble(val);
+            else if (opt.equals("--duration")) duration = Integer.parseInt(val);
+            else if (opt.equals("--seed")) seed = Long.parseLong(val);
+            else if (opt.equals("--data")) dataDir = val;
+            else if (opt.equals("--mix")) mix = val;
+            else if (opt.equals("--record")) record = val;
+            else if (opt.equals("--replay")) replay = val;
+            else if (opt.equals("--report")) report = val;
+            else if (opt.equals("--compare")) compare = val;
+            else throw new IllegalArgumentException("Unknown option " + opt);
+         }
+      }catch (RuntimeException e) {
+         System.err.println(e.getMessage() == null ? "Missing option value" : e.getMessage());
+         usage();
+         return;
+      }//end try
+
+      try {
+         List<Op> ops;
+         if (replay != null) {
+            ops = readTrace(new File(replay));
+            System.out.println("Replaying " + ops.size() + " operations from " + replay);
+         }
+         else {
+            ops = generate(new Workload(new File(dataDir)), parseMix(mix), rate, duration, new Random(seed));
+            System.out.println("Generated " + ops.size() + " operations at " + rate + " ops/s for " + duration + "s");
+         }
+         if (record != null) {
+            writeTrace(ops, new File(record));
+         }
+
+         Map<String, Stats> stats = run(ops, clients, args[0], args[1], args[2]);
+
+         Map<String, double[]> summary = summarize(stats, ops);
+         printReport(stats, summary);
+         if (report != null) {
+            writeReport(summary, new File(report));
+         }
+         if (compare != null) {
+            printComparison(readReport(new File(compare)), summary);
+         }
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }//end try
+   }//end main
+
+   static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + LoadGenerator.class.getName() +
+         " <dbname> <port> <user>\n" +
+         "   [--clients N] [--rate OPS_PER_SEC] [--duration SECONDS] [--seed N]\n" +
+         "   [--data DIR] [--mix login=30,browse=45,order=15,tracking=10,rentals=0,report=0]\n" +
+         "   [--record TRACE] [--replay TRACE] [--report FILE] [--compare FILE]\n" +
+         "   or --diff BASELINE[,BASELINE...] REPORT[,REPORT...]");
+   }//end usage
+
+   // parses "kind=weight,..." into cumulative weights per kind
+   static Map<String, Integer> parseMix(String mix) {
+      Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+      for (String part : mix.split(",")) {
+         String[] kv = part.split("=");
+         if (!KINDS.contains(kv[0].trim())) {
+            throw new IllegalArgumentException("Unknown operation in mix: " + kv[0]);
+         }
+         weights.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+      }
+      return weights;
+   }//end parseMix
+
+   // builds the schedule: Poisson arrivals at the target rate, kinds drawn from the mix
+   static List<Op> generate(Workload workload, Map<String, Integer> weights, double rate, int duration, Random rnd) {
+      int total = 0;
+      for (int w : weights.values()) {
+         total += w;
+      }
+      List<Op> ops = new ArrayList<Op>();
+      double t = 0;
+      while (total > 0) {
+         t += -Math.log(1.0 - rnd.nextDouble()) / rate;
+         if (t >= duration) {
+            break;
+         }
+         int r = rnd.nextInt(total);
+         String kind = null;
+         for (Map.Entry<String, Integer> e : weights.entrySet()) {
+            r -= e.getValue();
+            if (r < 0) {
+               kind = e.getKey();
+               break;
+            }
+         }
+         ops.add(workload.next(kind, (long) (t * 1e9), rnd));
+      }
+      return ops;
+   }//end generate
+
+   // dispatches the ops on schedule to the clients and waits for all of them
+   static Map<String, Stats> run(List<Op> ops, int clients, String dbname, String dbport, String user) throws Exception {
+      Map<String, Stats> stats = new LinkedHashMap<String, Stats>();
+      for (String kind : KINDS) {
+         stats.put(kind, new Stats());
+      }
+
+      // one connection per client, opened before the clock starts
+      List<GameRental> connections = new ArrayList<GameRental>();
+      for (int i = 0; i < clients; i++) {
+         connections.add(new GameRental(dbname, dbport, user, ""));
+      }
+
+      final LinkedBlockingQueue<Object[]> queue = new LinkedBlockingQueue<Object[]>();
+      final Object[] poison = new Object[0];
+      final Map<String, Stats> results = stats;
+      ExecutorService executor = clientExecutor(clients);
+      for (final GameRental esql : connections) {
+         executor.execute(new Runnable() {
+            public void run() {
+               try {
+                  while (true) {
+                     Object[] task = queue.take();
+                     if (task == poison) {
+                        return;
+                     }
+                     Op op = (Op) task[0];
+                     long intended = (Long) task[1];
+                     Exception error = null;
+                     try {
+                        execute(esql, op);
+                     }catch (Exception e) {
+                        error = e;
+                     }finally {
+                        // every op is a session of its own, so a write does not pin
+                        // the client's later reads to the primary
+                        esql.endSession();
+                     }//end try
+                     results.get(op.kind).record(System.nanoTime() - intended, error);
+                  }
+               }catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }//end try
+            }
+         });
+      }
+
+      long start = System.nanoTime();
+      for (Op op : ops) {
+         long intended = start + op.offsetNanos;
+         long wait = intended - System.nanoTime();
+         if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+         }
+         queue.put(new Object[] { op, intended });
+      }
+      for (int i = 0; i < clients; i++) {
+         queue.put(poison);
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      elapsedNanos = System.nanoTime() - start;
+
+      for (GameRental esql : connections) {
+         esql.cleanup();
+      }
+      return stats;
+   }//end run
+
+   // wall clock time of the last run, for throughput
+   private static long elapsedNanos = 0;
+
+   // uses virtual threads when the runtime has them (Java 21+), platform threads otherwise
+   static ExecutorService clientExecutor(int clients) {
+      try {
+         Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+         return (ExecutorService) m.invoke(null);
+      }catch (Exception e) {
+         return Executors.newFixedThreadPool(clients);
+      }//end try
+   }//end clientExecutor
+
+   // runs one op against the data access methods of GameRental, with the
+   // request scheduler class and role the console client would give it
+   static void execute(GameRental esql, Op op) throws Exception {
+      String[] a = op.args;
+      esql.setSessionRole(op.kind.equals(TRACKING) ? "employee" : op.kind.equals(REPORT) ? "manager" : "customer");
+      esql.setOperationClass(op.kind.equals(REPORT) ? RequestScheduler.OperationClass.HEAVY
+                             : op.kind.equals(BROWSE) || op.kind.equals(TRACKING) ? RequestScheduler.OperationClass.STANDARD
+                             : RequestScheduler.OperationClass.CHEAP);
+      if (op.kind.equals(LOGIN)) {
+         esql.authenticate(a[0], a[1]);
+      }
+      else if (op.kind.equals(BROWSE)) {
+         List<Object> params = new ArrayList<Object>();
+         String query = GameRental.catalogQuery(a[0], a[1], a[2], params);
+         if (params.isEmpty()) {
+            esql.setOperationClass(RequestScheduler.OperationClass.HEAVY);
+         }
+         esql.executeQueryAndReturnResult(query, params.toArray());
+      }
+      else if (op.kind.equals(ORDER)) {
+         List<String> gameIDs = new ArrayList<String>();
+         List<Integer> units = new ArrayList<Integer>();
+         for (int i = 1; i + 1 < a.length; i += 2) {
+            gameIDs.add(a[i]);
+            units.add(Integer.parseInt(a[i + 1]));
+         }
+         esql.placeRentalOrder(a[0], gameIDs, units);
+      }
+      else if (op.kind.equals(TRACKING)) {
+         esql.updateTracking(a[0], a[1], a[2], a[3], a[4]);
+      }
+      else if (op.kind.equals(RENTALS)) {
+         esql.listRentals(a[0]);
+      }
+      else if (op.kind.equals(REPORT)) {
+         esql.executeQueryAndReturnResult("SELECT * FROM RentalOrder WHERE login = ?", a[0]);
+      }
+      else {
+         throw new IllegalArgumentException("Unknown operation " + op.kind);
+      }
+   }//end execute
+
+   // per kind (and "total"): count, errors, error %, throughput, p50, p90, p99, p99.9, max
+   static Map<String, double[]> summarize(Map<String, Stats> stats, List<Op> ops) {
+      double seconds = elapsedNanos / 1e9;
+      Map<String, double[]> summary = new LinkedHashMap<String, double[]>();
+      Stats total = new Stats();
+      for (Map.Entry<String, Stats> e : stats.entrySet()) {
+         Stats s = e.getValue();
+         if (s.count() == 0) {
+            continue;
+         }
+         synchronized (s) {
+            for (int i = 0; i < s.count; i++) {
+               total.record(s.latencies[i], null);
+            }
+            total.errors += s.errors;
+         }
+         summary.put(e.getKey(), row(s, seconds));
+      }
+      summary.put("total", row(total, seconds));
+      return summary;
+   }//end summarize
+
+   private static double[] row(Stats s, double seconds) {
+      int count = s.count();
+      int errors = s.errors();
+      return new double[] {
+         count, errors, count == 0 ? 0 : 100.0 * errors / count, seconds == 0 ? 0 : count / seconds,
+         s.percentile(50), s.percentile(90), s.percentile(99), s.percentile(99.9), s.percentile(100)
+      };
+   }//end row
+
+   static void printReport(Map<String, Stats> stats, Map<String, double[]> summary) {
+      System.out.println();
+      System.out.println(String.format("%-10s %8s %7s %7s %9s %9s %9s %9s %9s %9s",
+         "op", "count", "errors", "err%", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+      for (Map.Entry<String, double[]> e : summary.entrySet()) {
+         double[] r = e.getValue();
+         System.out.println(String.format("%-10s %8d %7d %7.2f %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f",
+            e.getKey(), (long) r[0], (long) r[1], r[2], r[3], r[4], r[5], r[6], r[7], r[8]));
+      }
+      for (Map.Entry<String, Stats> e : stats.entrySet()) {
+         if (e.getValue().firstError() != null) {
+            System.out.println("First " + e.getKey() + " error: " + e.getValue().firstError());
+         }
+      }
+   }//end printReport
+
+   static void printComparison(Map<String, double[]> baseline, Map<String, double[]> current) {
+      System.out.println();
+      System.out.println("Change against baseline (positive means higher now):");
+      System.out.println(String.format("%-10s %10s %10s %10s %10s", "op", "ops/s", "err%", "p50 ms", "p99 ms"));
+      for (Map.Entry<String, double[]> e : current.entrySet()) {
+         double[] b = baseline.get(e.getKey());
+         if (b == null) {
+            continue;
+         }
+         double[] c = e.getValue();
+         System.out.println(String.format("%-10s %+10.1f %+10.2f %+10.2f %+10.2f",
+            e.getKey(), c[3] - b[3], c[2] - b[2], c[4] - b[4], c[6] - b[6]));
+      }
+   }//end printComparison
+
+   static void writeReport(Map<String, double[]> summary, File file) throws IOException {
+      PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+      try {
+         for (Map.Entry<String, double[]> e : summary.entrySet()) {
+            StringBuilder sb = new StringBuilder(e.getKey());
+            for (double v : e.getValue()) {
+               sb.append('\t').append(v);
+            }
+            out.println(sb);
+         }
+      }finally {
+         out.close();
+      }//end try
+   }//end writeReport
+
+   static Map<String, double[]> readReport(File file) throws IOException {
+      Map<String, double[]> summary = new LinkedHashMap<String, double[]>();
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            String[] fields = line.split("\t");
+            double[] r = new double[fields.length - 1];
+            for (int i = 0; i < r.length; i++) {
+               r[i] = Double.parseDouble(fields[i + 1]);
+            }
+            summary.put(fields[0], r);
+         }
+      }finally {
+         reader.close();
+      }//end try
+      return summary;
+   }//end readReport
+
+   // reads a comma separated list of reports and averages them per operation kind
+   static Map<String, double[]> averageReports(String files) throws IOException {
+      Map<String, double[]> sum = new LinkedHashMap<String, double[]>();
+      Map<String, Integer> count = new HashMap<String, Integer>();
+      for (String file : files.split(",")) {
+         for (Map.Entry<String, double[]> e : readReport(new File(file)).entrySet()) {
+            double[] total = sum.get(e.getKey());
+            if (total == null) {
+               total = new double[e.getValue().length];
+               sum.put(e.getKey(), total);
+               count.put(e.getKey(), 0);
+            }
+            for (int i = 0; i < total.length; i++) {
+               total[i] += e.getValue()[i];
+            }
+            count.put(e.getKey(), count.get(e.getKey()) + 1);
+         }
+      }
+      for (Map.Entry<String, double[]> e : sum.entrySet()) {
+         for (int i = 0; i < e.getValue().length; i++) {
+            e.getValue()[i] /= count.get(e.getKey());
+         }
+      }
+      return sum;
+   }//end averageReports
+
+   static void writeTrace(List<Op> ops, File file) throws IOException {
+      PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+      try {
+         for (Op op : ops) {
+            out.println(op.toTraceLine());
+         }
+      }finally {
+         out.close();
+      }//end try
+   }//end writeTrace
+
+   static List<Op> readTrace(File file) throws IOException {
+      List<Op> ops = new ArrayList<Op>();
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty()) {
+               ops.add(Op.fromTraceLine(line));
+            }
+         }
+      }finally {
+         reader.close();
+      }//end try
+      return ops;
+   }//end readTrace
+
+   /**
+    * Reads a CSV file in the format of data/*.csv (double quoted fields that
+    * may contain commas, one header line) and returns its data rows.
+    *
+    * @param file the CSV file
+    * @return the data rows, each as an array of fields
+    * @throws java.io.IOException when the file cannot be read
+    */
+   static List<String[]> readCsv(File file) throws IOException {
+      List<String[]> rows = new ArrayList<String[]>();
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try {
+         String line = reader.readLine(); // skip the header
+         while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+               continue;
+            }
+            List<String> fields = new ArrayList<String>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+               char c = line.charAt(i);
+               if (quoted) {
+                  if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                     field.append('"');
+                     i++;
+                  }
+                  else if (c == '"') {
+                     quoted = false;
+                  }
+                  else {
+                     field.append(c);
+                  }
+               }
+               else if (c == '"') {
+                  quoted = true;
+               }
+               else if (c == ',') {
+                  fields.add(field.toString());
+                  field.setLength(0);
+               }
+               else {
+                  field.append(c);
+               }
+            }
+            fields.add(field.toString());
+            rows.add(fields.toArray(new String[0]));
+         }
+      }finally {
+         reader.close();
+      }//end try
+      return rows;
+   }//end readCsv
+}//end LoadGenerator
@@ -0,0 +1,654 @@
+/*
+ * Data export for the Game Rental System
+ * ======================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * This class exports RentalOrder, GamesInOrder, TrackingInfo and Catalog for
+ * analysis, either as gzip compressed CSV (the same layout as data/*.csv, so
+ * an export can be loaded back with load_data.sql) or as a compact binary
+ * columnar file.
+ *
+ * Rows are streamed from a server-side cursor (GameRental.streamQuery) and
+ * written through a FileChannel as they arrive; the columnar writer holds at
+ * most one row group in memory.  Exports can be limited to orders placed in
+ * a date range and/or by one login.
+ *
+ * Columnar file layout (all integers big endian):
+ *
+ *    "GRCOL2", int columns, then per column: UTF name, byte type, byte scale
+ *    row groups: int rows, then per column: int raw length, int deflated
+ *                length, deflated bytes
+ *    end:        int 0, long total rows
+ *
+ * A column chunk holds a null bitmap (one bit per row) followed by the
+ * non-null values: strings as varint length and UTF-8 bytes; integers,
+ * decimals (unscaled, at the column scale) and timestamps (microseconds since
+ * 1970-01-01 00:00, read as written without a time zone) as zigzag varint
+ * deltas from the previous value in the chunk.
+ *
+ */
+public class OrderExporter {
+
+   // columnar column types
+   static final byte STRING = 0;
+   static final byte INTEGER = 1;
+   static final byte DECIMAL = 2;
+   static final byte TIMESTAMP = 3;
+
+   private static final byte[] MAGIC = "GRCOL2".getBytes(StandardCharsets.US_ASCII);
+
+   // how dump prints timestamps, the same as Postgres
+   private static final DateTimeFormatter TIMESTAMP_TEXT = new DateTimeFormatterBuilder()
+      .appendPattern("yyyy-MM-dd HH:mm:ss").appendFraction(ChronoField.NANO_OF_SECOND, 0, 6, true).toFormatter();
+
+   // rows per columnar row group
+   static final int ROW_GROUP_SIZE = 65536;
+
+   // exported tables, in the order "all" exports them
+   static final List<String> TABLES = Arrays.asList("rentalorder", "gamesinorder", "trackinginfo", "catalog");
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> followed by the options in usage(),
+    *             or --dump <file> to print a columnar file
+    */
+   public static void main(String[] args) {
+      if (args.length == 2 && args[0].equals("--dump")) {
+         try {
+            dump(new File(args[1]));
+         }catch (Exception e) {
+            System.err.println(e.getMessage());
+         }//end try
+         return;
+      }
+      if (args.length < 3) {
+         usage();
+         return;
+      }
+
+      List<String> tables = TABLES;
+      String format = "csv";
+      String outDir = ".";
+      String from = null;
+      String to = null;
+      String login = null;
+      int fetchSize = 10000;
+      try {
+         for (int i = 3; i < args.length; i++) {
+            String opt = args[i];
+            String val = args[++i];
+            if (opt.equals("--tables")) tables = val.equals("all") ? TABLES : Arrays.asList(val.toLowerCase().split(","));
+            else if (opt.equals("--format")) format = val;
+            else if (opt.equals("--out")) outDir = val;
+            else if (opt.equals("--from")) from = val;
+            else if (opt.equals("--to")) to = val;
+            else if (opt.equals("--login")) login = val;
+            else if (opt.equals("--fetch-size")) fetchSize = Integer.parseInt(val);
+            else throw new IllegalArgumentException("Unknown option " + opt);
+         }
+         for (String table : tables) {
+            if (!TABLES.contains(table)) {
+               throw new IllegalArgumentException("Unknown table " + table);
+            }
+         }
+         if (!format.equals("csv") && !format.equals("columnar")) {
+            throw new IllegalArgumentException("Unknown format " + format);
+         }
+      }catch (RuntimeException e) {
+         System.err.println(e.getMessage() == null ? "Missing option value" : e.getMessage());
+         usage();
+         return;
+      }//end try
+
+      GameRental esql = null;
+      try {
+         esql = new GameRental(args[0], args[1], args[2], "");
+         // exports are reports, they queue behind orders under the request scheduler
+         esql.setSessionRole("manager");
+         esql.setOperationClass(RequestScheduler.OperationClass.HEAVY);
+         new File(outDir).mkdirs();
+         for (String table : tables) {
+            List<Object> params = new ArrayList<Object>();
+            String query = exportQuery(table, from, to, login, params);
+            File file = new File(outDir, table + (format.equals("csv") ? ".csv.gz" : ".grc"));
+
+            long start = System.nanoTime();
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+               StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            ExportWriter writer = format.equals("csv") ? new CsvWriter(channel) : new ColumnarWriter(channel);
+            long rows;
+            try {
+               rows = esql.streamQuery(query, fetchSize, writer, params.toArray());
+               writer.finish();
+            }finally {
+               channel.close();
+            }//end try
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.println(String.format("%-13s %10d rows  %12d text bytes  %12d file bytes  (%.1f%%)  %.1fs  %s",
+               table, rows, writer.textBytes(), file.length(),
+               writer.textBytes() == 0 ? 0 : 100.0 * file.length() / writer.textBytes(), seconds, file));
+         }
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }finally {
+         if (esql != null) {
+            esql.cleanup();
+         }
+      }//end try
+   }//end main
+
+   static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + OrderExporter.class.getName() +
+         " <dbname> <port> <user>\n" +
+         "   [--tables all|rentalorder,gamesinorder,trackinginfo,catalog] [--format csv|columnar]\n" +
+         "   [--out DIR] [--from YYYY-MM-DD] [--to YYYY-MM-DD] [--login LOGIN] [--fetch-size N]\n" +
+         "       java [-classpath <classpath>] " + OrderExporter.class.getName() + " --dump <file.grc>\n" +
+         "--from/--to/--login select orders by orderTimestamp (from inclusive, to exclusive) and login;\n" +
+         "GamesInOrder and TrackingInfo follow the selected orders, Catalog is always exported whole.");
+   }//end usage
+
+   /**
+    * Builds the export query of a table, adding the values of its '?'
+    * placeholders to params.
+    */
+   static String exportQuery(String table, String from, String to, String login, List<Object> params) {
+      String orderFilter = "";
+      if (from != null) {
+         orderFilter += " AND R.orderTimestamp >= ?";
+         params.add(Timestamp.valueOf(from + " 00:00:00"));
+      }
+      if (to != null) {
+         orderFilter += " AND R.orderTimestamp < ?";
+         params.add(Timestamp.valueOf(to + " 00:00:00"));
+      }
+      if (login != null) {
+         orderFilter += " AND R.login = ?";
+         params.add(login);
+      }
+      if (!orderFilter.isEmpty()) {
+         orderFilter = orderFilter.substring(" AND ".length());
+      }
+
+      if (table.equals("rentalorder")) {
+         return "SELECT R.rentalOrderID, R.login, R.noOfGames, R.totalPrice, R.orderTimestamp, R.dueDate " +
+                "FROM RentalOrder R" + (orderFilter.isEmpty() ? "" : " WHERE " + orderFilter) +
+                " ORDER BY R.orderTimestamp";
+      }
+      String selected = orderFilter.isEmpty() ? "" :
+         " WHERE X.rentalOrderID IN (SELECT R.rentalOrderID FROM RentalOrder R WHERE " + orderFilter + ")";
+      if (table.equals("gamesinorder")) {
+         return "SELECT X.rentalOrderID, X.gameID, X.unitsOrdered FROM GamesInOrder X" + selected;
+      }
+      if (table.equals("trackinginfo")) {
+         return "SELECT X.trackingID, X.rentalOrderID, X.status, X.currentLocation, X.courierName, X.lastUpdateDate, X.additionalComments " +
+                "FROM TrackingInfo X" + selected;
+      }
+      // the catalog does not depend on the order filters
+      params.clear();
+      return "SELECT gameID, gameName, genre, price, description, imageURL FROM Catalog ORDER BY gameID";
+   }//end exportQuery
+
+   /**
+    * A streamQuery handler that writes an export file.
+    */
+   static abstract class ExportWriter implements GameRental.ResultHandler {
+      // size the rows would have as plain CSV text
+      protected long _textBytes = 0;
+
+      long textBytes() {
+         return _textBytes;
+      }
+
+      // flushes what is buffered, called after the last row
+      abstract void finish() throws IOException;
+   }//end ExportWriter
+
+   /**
+    * Writes gzip compressed CSV in the layout of data/*.csv: a header line,
+    * text values quoted, numbers bare and NULL as an empty field.
+    */
+   static class CsvWriter extends ExportWriter {
+      private Writer _out;
+      private boolean[] _quoted;
+
+      CsvWriter(FileChannel channel) throws IOException {
+         // the deflater hands the channel 64KB at a time
+         this._out = new BufferedWriter(new OutputStreamWriter(
+            new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16), StandardCharsets.UTF_8), 1 << 16);
+      }
+
+      public void columns(ResultSetMetaData rsmd) throws SQLException, IOException {
+         int numCol = rsmd.getColumnCount();
+         _quoted = new boolean[numCol];
+         StringBuilder header = new StringBuilder();
+         for (int i = 1; i <= numCol; i++) {
+            byte type = columnType(rsmd, i);
+            _quoted[i - 1] = type == STRING || type == TIMESTAMP;
+            header.append(i > 1 ? "," : "").append(quote(rsmd.getColumnName(i)));
+         }
+         write(header.append('\n').toString());
+      }
+
+      public void row(ResultSet rs) throws SQLException, IOException {
+         StringBuilder line = new StringBuilder();
+         for (int i = 1; i <= _quoted.length; i++) {
+            String value = rs.getString(i);
+            if (i > 1) {
+               line.append(',');
+            }
+            if (value != null) {
+               line.append(_quoted[i - 1] ? quote(value) : value);
+            }
+         }
+         write(line.append('\n').toString());
+      }
+
+      void finish() throws IOException {
+         _out.close();
+      }
+
+      private void write(String s) throws IOException {
+         _textBytes += s.length();
+         _out.write(s);
+      }
+
+      private static String quote(String value) {
+         return "\"" + value.replace("\"", "\"\"") + "\"";
+      }
+   }//end CsvWriter
+
+   /**
+    * Writes the binary columnar format described on OrderExporter, one row
+    * group at a time.
+    */
+   static class ColumnarWriter extends ExportWriter {
+      private FileChannel _channel;
+      private String[] _names;
+      private byte[] _types;
+      private int[] _scales;
+      private Bytes[] _values;
+      private byte[][] _nulls;
+      private long[] _previous;
+      private int _rows = 0;
+      private long _totalRows = 0;
+      private boolean _headerWritten = false;
+      private Deflater _deflater = new Deflater(Deflater.BEST_SPEED);
+
+      ColumnarWriter(FileChannel channel) {
+         this._channel = channel;
+      }
+
+      public void columns(ResultSetMetaData rsmd) throws SQLException, IOException {
+         int numCol = rsmd.getColumnCount();
+         _names = new String[numCol];
+         _types = new byte[numCol];
+         _scales = new int[numCol];
+         _values = new Bytes[numCol];
+         _nulls = new byte[numCol][ROW_GROUP_SIZE / 8];
+         _previous = new long[numCol];
+         for (int i = 0; i < numCol; i++) {
+            _names[i] = rsmd.getColumnName(i + 1);
+            _types[i] = columnType(rsmd, i + 1);
+            // numeric columns without a declared scale report 0 (or garbage);
+            // those take the scale of their first value
+            int scale = rsmd.getScale(i + 1);
+            _scales[i] = _types[i] == DECIMAL && scale > 0 && scale <= Byte.MAX_VALUE ? scale : -1;
+            _values[i] = new Bytes();
+         }
+      }
+
+      // written with the first row group, once every column's scale is known
+      private void writeHeader() throws IOException {
+         Bytes header = new Bytes();
+         header.write(MAGIC, 0, MAGIC.length);
+         header.writeInt(_types.length);
+         for (int i = 0; i < _types.length; i++) {
+            byte[] name = _names[i].getBytes(StandardCharsets.UTF_8);
+            header.writeShort(name.length);
+            header.write(name, 0, name.length);
+            header.writeByte(_types[i]);
+            header.writeByte(Math.max(0, _scales[i]));
+         }
+         header.writeTo(_channel);
+         _headerWritten = true;
+      }
+
+      public void row(ResultSet rs) throws SQLException, IOException {
+         for (int i = 0; i < _types.length; i++) {
+            String text = rs.getString(i + 1);
+            _textBytes += (text == null ? 0 : text.length()) + 1;
+            if (text == null) {
+               _nulls[i][_rows >>> 3] |= 1 << (_rows & 7);
+               continue;
+            }
+            Bytes out = _values[i];
+            switch (_types[i]) {
+               case INTEGER:
+                  out.writeDelta(rs.getLong(i + 1), _previous, i);
+                  break;
+               case DECIMAL:
+                  out.writeDelta(unscaled(rs.getBigDecimal(i + 1), i), _previous, i);
+                  break;
+               case TIMESTAMP:
+                  out.writeDelta(epochMicros(text), _previous, i);
+                  break;
+               default:
+                  byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                  out.writeVarLong(bytes.length);
+                  out.write(bytes, 0, bytes.length);
+            }
+         }
+         if (++_rows == ROW_GROUP_SIZE) {
+            flushGroup();
+         }
+      }
+
+      // the value at the column's scale
+      private long unscaled(BigDecimal value, int column) throws IOException {
+         if (_scales[column] < 0) {
+            _scales[column] = Math.min(Byte.MAX_VALUE, Math.max(0, value.scale()));
+         }
+         if (value.scale() > _scales[column] && value.stripTrailingZeros().scale() > _scales[column]) {
+            throw new IOException("Column " + _names[column] + " has values with more than " + _scales[column] +
+                                  " decimal places, export it as csv");
+         }
+         return value.setScale(_scales[column]).unscaledValue().longValueExact();
+      }
+
+      void finish() throws IOException {
+         if (_types == null) {
+            return;
+         }
+         if (_rows > 0 || !_headerWritten) {
+            flushGroup();
+         }
+         Bytes end = new Bytes();
+         end.writeInt(0);
+         end.writeLong(_totalRows);
+         end.writeTo(_channel);
+         _deflater.end();
+      }
+
+      private void flushGroup() throws IOException {
+         if (!_headerWritten) {
+            writeHeader();
+         }
+         if (_rows == 0) {
+            return;
+         }
+         Bytes group = new Bytes();
+         group.writeInt(_rows);
+         Bytes raw = new Bytes();
+         byte[] deflated = new byte[0];
+         for (int i = 0; i < _types.length; i++) {
+            raw.reset();
+            raw.write(_nulls[i], 0, (_rows + 7) / 8);
+            raw.write(_values[i]._buf, 0, _values[i]._len);
+
+            _deflater.reset();
+            _deflater.setInput(raw._buf, 0, raw._len);
+            _deflater.finish();
+            if (deflated.length < raw._len + 64) {
+               deflated = new byte[raw._len + raw._len / 8 + 64];
+            }
+            int deflatedLen = 0;
+            while (!_deflater.finished()) {
+               if (deflatedLen == deflated.length) {
+                  deflated = Arrays.copyOf(deflated, deflated.length * 2);
+               }
+               deflatedLen += _deflater.deflate(deflated, deflatedLen, deflated.length - deflatedLen);
+            }
+            group.writeInt(raw._len);
+            group.writeInt(deflatedLen);
+            group.write(deflated, 0, deflatedLen);
+
+            Arrays.fill(_nulls[i], (byte) 0);
+            _values[i].reset();
+            _previous[i] = 0;
+         }
+         group.writeTo(_channel);
+         _totalRows += _rows;
+         _rows = 0;
+      }
+   }//end ColumnarWriter
+
+   // microseconds since 1970-01-01 00:00 of a date or timestamp as returned by
+   // ResultSet.getString, "yyyy-mm-dd[ hh:mm:ss[.ffffff]]", taken as written
+   // so the value does not depend on the time zone of the JVM
+   static long epochMicros(String text) {
+      text = text.trim();
+      LocalDateTime t = text.length() == 10 ? LocalDate.parse(text).atStartOfDay()
+                                            : LocalDateTime.parse(text.replace(' ', 'T'));
+      return Math.addExact(Math.multiplyExact(t.toEpochSecond(ZoneOffset.UTC), 1000000L), t.getNano() / 1000);
+   }//end epochMicros
+
+   // maps a JDBC column type to a columnar type
+   static byte columnType(ResultSetMetaData rsmd, int column) throws SQLException {
+      switch (rsmd.getColumnType(column)) {
+         case Types.SMALLINT:
+         case Types.INTEGER:
+         case Types.BIGINT:
+            return INTEGER;
+         case Types.NUMERIC:
+         case Types.DECIMAL:
+            return DECIMAL;
+         case Types.DATE:
+         case Types.TIMESTAMP:
+            return TIMESTAMP;
+         default:
+            return STRING;
+      }
+   }//end columnType
+
+   /**
+    * Growable byte buffer with the encodings of the columnar format.
+    */
+   static class Bytes {
+      byte[] _buf = new byte[1024];
+      int _len = 0;
+
+      void reset() {
+         _len = 0;
+      }
+
+      void write(byte[] b, int off, int len) {
+         ensure(len);
+         System.arraycopy(b, off, _buf, _len, len);
+         _len += len;
+      }
+
+      void writeByte(int v) {
+         ensure(1);
+         _buf[_len++] = (byte) v;
+      }
+
+      void writeShort(int v) {
+         writeByte(v >>> 8);
+         writeByte(v);
+      }
+
+      void writeInt(int v) {
+         writeShort(v >>> 16);
+         writeShort(v);
+      }
+
+      void writeLong(long v) {
+         writeInt((int) (v >>> 32));
+         writeInt((int) v);
+      }
+
+      void writeVarLong(long v) {
+         while ((v & ~0x7FL) != 0) {
+            writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+         }
+         writeByte((int) v);
+      }
+
+      // zigzag varint of the difference to the column's previous value
+      void writeDelta(long v, long[] previous, int column) {
+         long delta = v - previous[column];
+         previous[column] = v;
+         writeVarLong((delta << 1) ^ (delta >> 63));
+      }
+
+      void writeTo(FileChannel channel) throws IOException {
+         ByteBuffer buffer = ByteBuffer.wrap(_buf, 0, _len);
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+      }
+
+      private void ensure(int n) {
+         if (_len + n > _buf.length) {
+            _buf = Arrays.copyOf(_buf, Math.max(_buf.length * 2, _len + n));
+         }
+      }
+   }//end Bytes
+
+   /**
+    * Prints a columnar file as tab separated rows, one row group at a time.
+    *
+    * @param file the columnar file
+    * @throws java.io.IOException when the file cannot be read or is not a columnar file
+    */
+   static void dump(File file) throws IOException {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+         Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ)), 1 << 16));
+      try {
+         byte[] magic = new byte[MAGIC.length];
+         in.readFully(magic);
+         if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException(file + " is not a columnar export");
+         }
+         int numCol = in.readInt();
+         byte[] types = new byte[numCol];
+         int[] scales = new int[numCol];
+         StringBuilder header = new StringBuilder();
+         for (int i = 0; i < numCol; i++) {
+            byte[] name = new byte[in.readUnsignedShort()];
+            in.readFully(name);
+            types[i] = in.readByte();
+            scales[i] = in.readByte();
+            header.append(new String(name, StandardCharsets.UTF_8)).append('\t');
+         }
+         System.out.println(header);
+
+         Inflater inflater = new Inflater();
+         int rows;
+         while ((rows = in.readInt()) > 0) {
+            String[][] columns = new String[numCol][];
+            for (int i = 0; i < numCol; i++) {
+               byte[] raw = new byte[in.readInt()];
+               byte[] deflated = new byte[in.readInt()];
+               in.readFully(deflated);
+               inflater.reset();
+               inflater.setInput(deflated);
+               try {
+                  int inflated = 0;
+                  while (!inflater.finished() && inflated < raw.length) {
+                     inflated += inflater.inflate(raw, inflated, raw.length - inflated);
+                  }
+               }catch (DataFormatException e) {
+                  throw new IOException("Damaged row group in " + file);
+               }//end try
+               columns[i] = decodeColumn(ByteBuffer.wrap(raw), rows, types[i], scales[i]);
+            }
+            for (int r = 0; r < rows; r++) {
+               StringBuilder line = new StringBuilder();
+               for (int i = 0; i < numCol; i++) {
+                  line.append(columns[i][r]).append('\t');
+               }
+               System.out.println(line);
+            }
+         }
+         inflater.end();
+         System.out.println("(" + in.readLong() + " rows)");
+      }finally {
+         in.close();
+      }//end try
+   }//end dump
+
+   private static String[] decodeColumn(ByteBuffer raw, int rows, byte type, int scale) {
+      byte[] nulls = new byte[(rows + 7) / 8];
+      raw.get(nulls);
+      String[] values = new String[rows];
+      long previous = 0;
+      for (int r = 0; r < rows; r++) {
+         if ((nulls[r >>> 3] & (1 << (r & 7))) != 0) {
+            continue;
+         }
+         if (type == STRING) {
+            byte[] bytes = new byte[(int) readVarLong(raw)];
+            raw.get(bytes);
+            values[r] = new String(bytes, StandardCharsets.UTF_8);
+            continue;
+         }
+         long zigzag = readVarLong(raw);
+         previous += (zigzag >>> 1) ^ -(zigzag & 1);
+         if (type == INTEGER) {
+            values[r] = String.valueOf(previous);
+         }
+         else if (type == DECIMAL) {
+            values[r] = BigDecimal.valueOf(previous, scale).toPlainString();
+         }
+         else {
+            LocalDateTime t = LocalDateTime.ofEpochSecond(Math.floorDiv(previous, 1000000L),
+                                                          (int) Math.floorMod(previous, 1000000L) * 1000, ZoneOffset.UTC);
+            values[r] = TIMESTAMP_TEXT.format(t);
+         }
+      }
+      return values;
+   }//end decodeColumn
+
+   private static long readVarLong(ByteBuffer raw) {
+      long v = 0;
+      for (int shift = 0; ; shift += 7) {
+         byte b = raw.get();
+         v |= (long) (b & 0x7F) << shift;
+         if ((b & 0x80) == 0) {
+            return v;
+         }
+      }
+   }//end readVarLong
+}//end OrderExporter
@@ -0,0 +1,604 @@
+/*
+ * Recommendations for the Game Rental System
+ * ==========================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class serves game recommendations from memory.  It is built once from
+ * the database and then kept current: recordOrder counts the orders placed
+ * through this client right away, and catchUp folds in the orders other
+ * clients placed since, by their RentalOrder.orderTimestamp.
+ *
+ * Two sources feed it: the free-text, comma separated Users.favGames column,
+ * whose titles are matched to Catalog.gameName, and the co-rental counts of
+ * GamesInOrder (how many orders rented both X and Y).  Games are numbered
+ * 0..n-1 and each row of the co-rental matrix is a sparse int to int hash map,
+ * so counts never go through boxed Integers.
+ *
+ */
+public class RecommendationEngine {
+
+   // orders per fork-join leaf task when building the co-rental matrix
+   private static final int BUILD_THRESHOLD = 512;
+
+   // game index <-> gameID and name
+   private Map<String, Integer> _gameIndex = new HashMap<String, Integer>();
+   private List<String> _gameIDs = new ArrayList<String>();
+   private List<String> _gameNames = new ArrayList<String>();
+
+   // normalized catalog name -> indices of the games with that name
+   private Map<String, int[]> _titleIndex = new HashMap<String, int[]>();
+
+   // co-rental matrix: row x holds, for every game y rented with x, the number of such orders
+   private IntIntMap[] _coRentals = new IntIntMap[0];
+
+   // number of orders each game appears in, used when there is nothing to go on
+   private int[] _popularity = new int[0];
+
+   // login -> games from favGames, and login -> games the user has rented
+   private Map<String, int[]> _favGames = new HashMap<String, int[]>();
+   private Map<String, IntIntMap> _rented = new HashMap<String, IntIntMap>();
+
+   // how far before the watermark catchUp looks again.  orderTimestamp is
+   // the start of the order's transaction, so an order can commit after a
+   // newer one has moved the watermark past it
+   private static final long OVERLAP_SECONDS = 60;
+
+   // newest orderTimestamp counted so far
+   private LocalDateTime _watermark = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+   // orders counted with an orderTimestamp inside the overlap window, so they
+   // are skipped when catchUp reads them again
+   private Map<String, LocalDateTime> _counted = new HashMap<String, LocalDateTime>();
+
+   // orders recordOrder counted that catchUp has not read yet, with the
+   // database time of the first catch up after them (null until then): their
+   // orderTimestamp is before it, so once the window has passed that time
+   // they will never be read and are dropped
+   private Map<String, LocalDateTime> _recorded = new HashMap<String, LocalDateTime>();
+
+   // the games of the orders placed at or after a time, one row per order
+   // line, in orderTimestamp order with each order's lines together
+   private static final String ORDER_LINES_SINCE_SQL =
+      "SELECT G.rentalOrderID, R.login, G.gameID, R.orderTimestamp " +
+      "FROM RentalOrder R, GamesInOrder G " +
+      "WHERE R.orderTimestamp >= CAST(? AS timestamp) AND G.rentalOrderID = R.rentalOrderID " +
+      "ORDER BY R.orderTimestamp, G.rentalOrderID";
+
+   /**
+    * Builds the engine from the Catalog, Users, RentalOrder and GamesInOrder
+    * tables.
+    *
+    * @param esql the database to read from
+    * @return the built engine
+    * @throws java.sql.SQLException when a query fails
+    */
+   public static RecommendationEngine build(GameRental esql) throws SQLException {
+      RecommendationEngine engine = new RecommendationEngine();
+
+      for (List<String> row : esql.executeQueryAndReturnResult("SELECT gameID, gameName FROM Catalog ORDER BY gameID")) {
+         engine.addGame(row.get(0).trim(), row.get(1));
+      }
+
+      for (List<String> row : esql.executeQueryAndReturnResult("SELECT login, favGames FROM Users WHERE favGames IS NOT NULL")) {
+         int[] favs = engine.matchTitles(row.get(1));
+         if (favs.length > 0) {
+            engine._favGames.put(row.get(0), favs);
+         }
+      }
+
+      // one basket of game indices per order
+      List<int[]> baskets = new ArrayList<int[]>();
+      for (Order order : engine.readOrders(esql.executeQueryAndReturnResult(ORDER_LINES_SINCE_SQL, engine._watermark.toString()))) {
+         baskets.add(order.basket);
+         engine.rentedBy(order.login).addAll(order.basket, 1);
+         engine.advance(order);
+      }
+      engine.prune();
+
+      int n = engine._gameIDs.size();
+      engine._coRentals = ForkJoinPool.commonPool().invoke(new BuildTask(baskets, 0, baskets.size(), n));
+      for (int[] basket : baskets) {
+         for (int g : basket) {
+            engine._popularity[g]++;
+         }
+      }
+      return engine;
+   }//end build
+
+   /**
+    * Adds an order this client placed after the engine was built.  Only the
+    * pairs of this order are counted, no rebuild is needed.
+    *
+    * @param rentalOrderID the order
+    * @param login the user that placed the order
+    * @param gameIDs the games in the order
+    */
+   public synchronized void recordOrder(String rentalOrderID, String login, List<String> gameIDs) {
+      int[] basket = new int[0];
+      for (String gameID : gameIDs) {
+         basket = addGameTo(basket, gameID);
+      }
+      count(login, basket);
+      _recorded.put(rentalOrderID, null);
+   }//end recordOrder
+
+   /**
+    * Adds the orders placed by other clients since the last build or catch
+    * up.  One range scan of the orderTimestamp index, starting the overlap
+    * window before the watermark; orders already counted, here or by
+    * recordOrder, are not counted twice.
+    *
+    * @param esql the database to read from
+    * @throws java.sql.SQLException when the query fails
+    */
+   public void catchUp(GameRental esql) throws SQLException {
+      List<String> recordedBefore;
+      LocalDateTime since;
+      synchronized (this) {
+         recordedBefore = new ArrayList<String>(_recorded.keySet());
+         since = _watermark.minusSeconds(OVERLAP_SECONDS);
+      }
+      // read after the orders above were committed, so it is later than their orderTimestamp
+      LocalDateTime now = parseTimestamp(esql.executeQueryAndReturnResult("SELECT LOCALTIMESTAMP").get(0).get(0));
+      List<List<String>> lines = esql.executeQueryAndReturnResult(ORDER_LINES_SINCE_SQL, since.toString());
+      synchronized (this) {
+         for (String id : recordedBefore) {
+            if (_recorded.containsKey(id) && _recorded.get(id) == null) {
+               _recorded.put(id, now);
+            }
+         }
+         // a concurrent catch up may have pruned what this one read before the window
+         LocalDateTime horizon = _watermark.minusSeconds(OVERLAP_SECONDS);
+         for (Order order : readOrders(lines)) {
+            if (order.timestamp.isBefore(horizon) || _counted.containsKey(order.id)) {
+               continue;
+            }
+            if (_recorded.containsKey(order.id)) {
+               _recorded.remove(order.id);
+            }
+            else {
+               count(order.login, order.basket);
+            }
+            advance(order);
+         }
+         prune();
+      }
+   }//end catchUp
+
+   // counts one order's pairs, games and user history
+   private void count(String login, int[] basket) {
+      countPairs(_coRentals, basket);
+      for (int g : basket) {
+         _popularity[g]++;
+      }
+      rentedBy(login).addAll(basket, 1);
+   }//end count
+
+   // remembers an order that has been counted and moves the watermark up to it
+   private void advance(Order order) {
+      _counted.put(order.id, order.timestamp);
+      if (order.timestamp.isAfter(_watermark)) {
+         _watermark = order.timestamp;
+      }
+   }//end advance
+
+   // forgets the orders catchUp can no longer read, keeping both sets as
+   // small as the orders of the overlap window
+   private void prune() {
+      LocalDateTime horizon = _watermark.minusSeconds(OVERLAP_SECONDS);
+      for (Iterator<LocalDateTime> it = _counted.values().iterator(); it.hasNext(); ) {
+         if (it.next().isBefore(horizon)) {
+            it.remove();
+         }
+      }
+      for (Iterator<LocalDateTime> it = _recorded.values().iterator(); it.hasNext(); ) {
+         LocalDateTime readBy = it.next();
+         if (readBy != null && readBy.isBefore(horizon)) {
+            it.remove();
+         }
+      }
+   }//end prune
+
+   // parses a timestamp as returned by ResultSet.getString, "yyyy-mm-dd hh:mm:ss[.ffffff]"
+   static LocalDateTime parseTimestamp(String value) {
+      return LocalDateTime.parse(value.trim().replace(' ', 'T'));
+   }//end parseTimestamp
+
+   // groups rows of ORDER_LINES_SINCE_SQL into one basket of game indices per order
+   private List<Order> readOrders(List<List<String>> lines) {
+      List<Order> orders = new ArrayList<Order>();
+      int i = 0;
+      while (i < lines.size()) {
+         List<String> first = lines.get(i);
+         Order order = new Order(first.get(0), first.get(1), parseTimestamp(first.get(3)));
+         while (i < lines.size() && lines.get(i).get(0).equals(order.id)) {
+            order.basket = addGameTo(order.basket, lines.get(i).get(2));
+            i++;
+         }
+         orders.add(order);
+      }
+      return orders;
+   }//end readOrders
+
+   // appends a game's index to a basket, ignoring games not in the catalog
+   private int[] addGameTo(int[] basket, String gameID) {
+      Integer g = _gameIndex.get(gameID.trim());
+      if (g == null) {
+         return basket;
+      }
+      basket = Arrays.copyOf(basket, basket.length + 1);
+      basket[basket.length - 1] = g;
+      return basket;
+   }//end addGameTo
+
+   /**
+    * Keeps the favGames title matching current after a catalog update.
+    *
+    * @param gameID the game that changed
+    * @param gameName its new name
+    */
+   public synchronized void renameGame(String gameID, String gameName) {
+      Integer g = _gameIndex.get(gameID.trim());
+      if (g == null) {
+         return;
+      }
+      String old = normalize(_gameNames.get(g));
+      int[] withOldName = _titleIndex.get(old);
+      if (withOldName != null) {
+         int[] rest = new int[0];
+         for (int other : withOldName) {
+            if (other != g) {
+               rest = Arrays.copyOf(rest, rest.length + 1);
+               rest[rest.length - 1] = other;
+            }
+         }
+         if (rest.length == 0) {
+            _titleIndex.remove(old);
+         }
+         else {
+            _titleIndex.put(old, rest);
+         }
+      }
+      _gameNames.set(g, gameName);
+      indexTitle(g, gameName);
+   }//end renameGame
+
+   /**
+    * "Customers who rented X also rented Y".
+    *
+    * @param gameID the game X
+    * @param limit the maximum number of games to return
+    * @return rows of gameID, gameName and the number of orders shared with X
+    */
+   public synchronized List<List<String>> alsoRented(String gameID, int limit) {
+      Integer g = _gameIndex.get(gameID.trim());
+      if (g == null) {
+         return new ArrayList<List<String>>();
+      }
+      long[] scores = new long[_gameIDs.size()];
+      IntIntMap row = _coRentals[g];
+      for (int k = 0; row != null && k < row._keys.length; k++) {
+         if (row._keys[k] != IntIntMap.EMPTY) {
+            scores[row._keys[k]] = row._values[k];
+         }
+      }
+      return top(scores, limit);
+   }//end alsoRented
+
+   /**
+    * Personal top-N list for a user: games co-rented with the user's favorite
+    * and previously rented games, excluding those games themselves.  Falls
+    * back to the most rented games when the user has no history.
+    *
+    * @param login the user
+    * @param limit the maximum number of games to return
+    * @return rows of gameID, gameName and score
+    */
+   public synchronized List<List<String>> forUser(String login, int limit) {
+      long[] scores = new long[_gameIDs.size()];
+      boolean[] seen = new boolean[_gameIDs.size()];
+
+      // a favorite counts as much as one rental of that game
+      IntIntMap seeds = new IntIntMap();
+      int[] favs = _favGames.get(login);
+      if (favs != null) {
+         seeds.addAll(favs, 1);
+      }
+      IntIntMap rented = _rented.get(login);
+      if (rented != null) {
+         seeds.addAll(rented);
+      }
+
+      for (int k = 0; k < seeds._keys.length; k++) {
+         int x = seeds._keys[k];
+         if (x == IntIntMap.EMPTY) {
+            continue;
+         }
+         seen[x] = true;
+         IntIntMap row = _coRentals[x];
+         for (int j = 0; row != null && j < row._keys.length; j++) {
+            if (row._keys[j] != IntIntMap.EMPTY) {
+               scores[row._keys[j]] += (long) seeds._values[k] * row._values[j];
+            }
+         }
+      }
+
+      boolean any = false;
+      for (int y = 0; y < scores.length; y++) {
+         if (seen[y]) {
+            scores[y] = 0;
+         }
+         any |= scores[y] > 0;
+      }
+      if (!any) {
+         for (int y = 0; y < scores.length; y++) {
+            scores[y] = seen[y] ? 0 : _popularity[y];
+         }
+      }
+      return top(scores, limit);
+   }//end forUser
+
+   // the limit highest positive scores, highest first, as result rows
+   private List<List<String>> top(long[] scores, int limit) {
+      if (limit <= 0) {
+         return new ArrayList<List<String>>();
+      }
+      int[] best = new int[limit];
+      int size = 0;
+      for (int y = 0; y < scores.length; y++) {
+         if (scores[y] <= 0 || (size == limit && scores[y] <= scores[best[size - 1]])) {
+            continue;
+         }
+         int pos = size < limit ? size++ : size - 1;
+         while (pos > 0 && scores[best[pos - 1]] < scores[y]) {
+            best[pos] = best[pos - 1];
+            pos--;
+         }
+         best[pos] = y;
+      }
+      List<List<String>> result = new ArrayList<List<String>>();
+      for (int k = 0; k < size; k++) {
+         result.add(Arrays.asList(_gameIDs.get(best[k]), _gameNames.get(best[k]), String.valueOf(scores[best[k]])));
+      }
+      return result;
+   }//end top
+
+   private void addGame(String gameID, String gameName) {
+      int g = _gameIDs.size();
+      _gameIndex.put(gameID, g);
+      _gameIDs.add(gameID);
+      _gameNames.add(gameName);
+      _popularity = Arrays.copyOf(_popularity, g + 1);
+      indexTitle(g, gameName);
+   }//end addGame
+
+   private void indexTitle(int g, String gameName) {
+      String key = normalize(gameName);
+      int[] games = _titleIndex.get(key);
+      games = games == null ? new int[1] : Arrays.copyOf(games, games.length + 1);
+      games[games.length - 1] = g;
+      _titleIndex.put(key, games);
+   }//end indexTitle
+
+   private IntIntMap rentedBy(String login) {
+      IntIntMap rented = _rented.get(login);
+      if (rented == null) {
+         rented = new IntIntMap();
+         _rented.put(login, rented);
+      }
+      return rented;
+   }//end rentedBy
+
+   /**
+    * Matches a favGames value to catalog games.  A title matches the games
+    * with the same name (ignoring case and punctuation); a title with no
+    * exact match, such as a series name like "FIFA", matches every game
+    * whose name starts with it.
+    *
+    * @param favGames comma separated titles
+    * @return the matched game indices
+    */
+   int[] matchTitles(String favGames) {
+      IntIntMap matched = new IntIntMap();
+      for (String title : favGames.split(",")) {
+         String key = normalize(title);
+         if (key.isEmpty()) {
+            continue;
+         }
+         int[] exact = _titleIndex.get(key);
+         if (exact != null) {
+            matched.addAll(exact, 1);
+            continue;
+         }
+         for (Map.Entry<String, int[]> e : _titleIndex.entrySet()) {
+            if (e.getKey().startsWith(key + " ")) {
+               matched.addAll(e.getValue(), 1);
+            }
+         }
+      }
+      int[] games = new int[matched.size()];
+      int n = 0;
+      for (int k = 0; k < matched._keys.length; k++) {
+         if (matched._keys[k] != IntIntMap.EMPTY) {
+            games[n++] = matched._keys[k];
+         }
+      }
+      return games;
+   }//end matchTitles
+
+   // lower case, with every run of punctuation and spaces turned into one space
+   static String normalize(String title) {
+      return title.toLowerCase().replaceAll("[^a-z0-9]+", " ").trim();
+   }//end normalize
+
+   // adds one to every (x, y) pair of distinct games in the basket
+   private static void countPairs(IntIntMap[] matrix, int[] basket) {
+      for (int x : basket) {
+         for (int y : basket) {
+            if (x != y) {
+               if (matrix[x] == null) {
+                  matrix[x] = new IntIntMap();
+               }
+               matrix[x].add(y, 1);
+            }
+         }
+      }
+   }//end countPairs
+
+   /**
+    * One order read from the database.
+    */
+   static class Order {
+      final String id;
+      final String login;
+      final LocalDateTime timestamp;
+      int[] basket = new int[0];
+
+      Order(String id, String login, LocalDateTime timestamp) {
+         this.id = id;
+         this.login = login;
+         this.timestamp = timestamp;
+      }
+   }//end Order
+
+   /**
+    * Counts the co-rentals of a range of orders, splitting the range in half
+    * until it is small enough and adding the halves' matrices together.
+    */
+   static class BuildTask extends RecursiveTask<IntIntMap[]> {
+      private static final long serialVersionUID = 1L;
+
+      private final List<int[]> _baskets;
+      private final int _from;
+      private final int _to;
+      private final int _games;
+
+      BuildTask(List<int[]> baskets, int from, int to, int games) {
+         this._baskets = baskets;
+         this._from = from;
+         this._to = to;
+         this._games = games;
+      }
+
+      protected IntIntMap[] compute() {
+         if (_to - _from <= BUILD_THRESHOLD) {
+            IntIntMap[] matrix = new IntIntMap[_games];
+            for (int i = _from; i < _to; i++) {
+               countPairs(matrix, _baskets.get(i));
+            }
+            return matrix;
+         }
+         int mid = (_from + _to) >>> 1;
+         BuildTask left = new BuildTask(_baskets, _from, mid, _games);
+         left.fork();
+         IntIntMap[] right = new BuildTask(_baskets, mid, _to, _games).compute();
+         IntIntMap[] matrix = left.join();
+         for (int x = 0; x < _games; x++) {
+            if (right[x] == null) {
+               continue;
+            }
+            if (matrix[x] == null) {
+               matrix[x] = right[x];
+            }
+            else {
+               matrix[x].addAll(right[x]);
+            }
+         }
+         return matrix;
+      }
+   }//end BuildTask
+
+   /**
+    * Open addressing hash map from non-negative int keys to int counts.
+    */
+   static class IntIntMap {
+      static final int EMPTY = -1;
+
+      int[] _keys;
+      int[] _values;
+      private int _size = 0;
+
+      IntIntMap() {
+         _keys = new int[8];
+         _values = new int[8];
+         Arrays.fill(_keys, EMPTY);
+      }
+
+      int size() {
+         return _size;
+      }
+
+      int get(int key) {
+         int slot = find(key);
+         return _keys[slot] == EMPTY ? 0 : _values[slot];
+      }
+
+      void add(int key, int delta) {
+         int slot = find(key);
+         if (_keys[slot] == EMPTY) {
+            _keys[slot] = key;
+            _size++;
+         }
+         _values[slot] += delta;
+         // keep the load factor at or below one half
+         if (_size * 2 > _keys.length) {
+            rehash(_keys.length * 2);
+         }
+      }
+
+      void addAll(int[] keys, int delta) {
+         for (int key : keys) {
+            add(key, delta);
+         }
+      }
+
+      void addAll(IntIntMap other) {
+         for (int k = 0; k < other._keys.length; k++) {
+            if (other._keys[k] != EMPTY) {
+               add(other._keys[k], other._values[k]);
+            }
+         }
+      }
+
+      private int find(int key) {
+         int mask = _keys.length - 1;
+         int h = key * 0x9E3779B9;
+         int slot = (h ^ (h >>> 16)) & mask;
+         while (_keys[slot] != EMPTY && _keys[slot] != key) {
+            slot = (slot + 1) & mask;
+         }
+         return slot;
+      }
+
+      private void rehash(int capacity) {
+         int[] keys = _keys;
+         int[] values = _values;
+         _keys = new int[capacity];
+         _values = new int[capacity];
+         Arrays.fill(_keys, EMPTY);
+         for (int k = 0; k < keys.length; k++) {
+            if (keys[k] != EMPTY) {
+               int slot = find(keys[k]);
+               _keys[slot] = keys[k];
+               _values[slot] = values[k];
+            }
+         }
+      }
+   }//end IntIntMap
+}//end RecommendationEngine
@@ -0,0 +1,320 @@
+/*
+ * Request scheduling for the Game Rental System
+ * =============================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class admits database operations of all GameRental instances in the
+ * JVM, so heavy operations cannot starve cheap ones when clients share a
+ * backend.
+ *
+ * Three mechanisms work together:
+ *   - at most a fixed number of operations run against the database at once;
+ *   - every operation class has a token bucket, so e.g. unfiltered catalog
+ *     listings cannot exceed their rate however many clients ask for them;
+ *   - waiting operations are granted in weighted fair order between the
+ *     roles of Users.role (self-clocked fair queuing), so a burst of manager
+ *     reports delays customer orders by at most their share.
+ *
+ * Queues are bounded per role.  An operation is rejected right away with a
+ * SQLTransientException when its role's queue is full or its class's bucket
+ * could not serve it before the admission timeout, and rejected later if it
+ * is still waiting at the timeout.
+ *
+ * The scheduler is off unless -Dgamerental.scheduler=true; it is tuned with
+ *   gamerental.scheduler.concurrency  operations running at once (default 8)
+ *   gamerental.scheduler.weights      role weights (customer:4,employee:2,manager:1)
+ *   gamerental.scheduler.rates        operations/s per class (cheap:1000,standard:100,heavy:5)
+ *   gamerental.scheduler.queue        waiting operations per role (default 64)
+ *   gamerental.scheduler.timeoutMs    longest wait for admission (default 5000)
+ *
+ */
+public class RequestScheduler {
+
+   /**
+    * How expensive an operation is for the database.  The cost is the share
+    * of its role's fair queuing budget one operation uses.
+    */
+   public enum OperationClass {
+      CHEAP(1), STANDARD(4), HEAVY(16);
+
+      final int cost;
+
+      OperationClass(int cost) {
+         this.cost = cost;
+      }
+   }//end OperationClass
+
+   // role used before a user has logged in and for roles with no weight
+   static final String DEFAULT_ROLE = "customer";
+
+   /**
+    * Token bucket of one operation class, refilled continuously at rate
+    * tokens per second up to burst tokens.
+    */
+   static class TokenBucket {
+      private final double _rate;
+      private final double _burst;
+      private double _tokens;
+      private long _lastRefill;
+
+      TokenBucket(double rate, long now) {
+         this._rate = rate;
+         this._burst = Math.max(1, rate);
+         this._tokens = this._burst;
+         this._lastRefill = now;
+      }
+
+      private void refill(long now) {
+         _tokens = Math.min(_burst, _tokens + (now - _lastRefill) / 1e9 * _rate);
+         _lastRefill = now;
+      }
+
+      boolean available(long now) {
+         refill(now);
+         return _tokens >= 1;
+      }
+
+      void take() {
+         _tokens -= 1;
+      }
+
+      // time until the bucket has served `waiting` more operations and has a token for one more
+      long nanosUntil(int waiting, long now) {
+         refill(now);
+         double missing = waiting + 1 - _tokens;
+         return missing <= 0 ? 0 : (long) Math.ceil(missing / _rate * 1e9);
+      }
+   }//end TokenBucket
+
+   /**
+    * An operation waiting for admission.
+    */
+   static class Ticket {
+      final String role;
+      final OperationClass operation;
+      final double finish;
+      boolean granted = false;
+
+      Ticket(String role, OperationClass operation, double finish) {
+         this.role = role;
+         this.operation = operation;
+         this.finish = finish;
+      }
+   }//end Ticket
+
+   // shared by every GameRental of the JVM, null when scheduling is off
+   private static final RequestScheduler SHARED = Boolean.getBoolean("gamerental.scheduler") ? fromSystemProperties() : null;
+
+   private final ReentrantLock _lock = new ReentrantLock();
+   private final Condition _changed = _lock.newCondition();
+
+   private final int _concurrency;
+   private final int _queueLimit;
+   private final long _timeoutNanos;
+   private final Map<String, Double> _weights;
+   private final Map<OperationClass, TokenBucket> _buckets = new EnumMap<OperationClass, TokenBucket>(OperationClass.class);
+
+   // waiting operations, and how many of them each role and class has
+   private final List<Ticket> _waiting = new ArrayList<Ticket>();
+   private final Map<String, Integer> _queuedByRole = new HashMap<String, Integer>();
+   private final Map<OperationClass, Integer> _queuedByClass = new EnumMap<OperationClass, Integer>(OperationClass.class);
+
+   // fair queuing state: system virtual time and each role's last finish tag
+   private double _virtualTime = 0;
+   private final Map<String, Double> _lastFinish = new HashMap<String, Double>();
+
+   private int _running = 0;
+
+   /**
+    * Creates a new scheduler
+    *
+    * @param concurrency the number of operations that may run at once
+    * @param weights the fair queuing weight of each role
+    * @param rates the operations per second of each class
+    * @param queueLimit the number of operations a role may have waiting
+    * @param timeoutMillis the longest an operation waits for admission
+    */
+   public RequestScheduler(int concurrency, Map<String, Double> weights, Map<OperationClass, Double> rates,
+                           int queueLimit, long timeoutMillis) {
+      this._concurrency = concurrency;
+      this._weights = new HashMap<String, Double>(weights);
+      this._queueLimit = queueLimit;
+      this._timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      long now = System.nanoTime();
+      for (OperationClass c : OperationClass.values()) {
+         Double rate = rates.get(c);
+         this._buckets.put(c, new TokenBucket(rate == null ? Double.MAX_VALUE / 4 : rate, now));
+         this._queuedByClass.put(c, 0);
+      }
+   }//end RequestScheduler
+
+   /**
+    * @return the scheduler shared by the JVM, or null if scheduling is off
+    */
+   public static RequestScheduler shared() {
+      return SHARED;
+   }//end shared
+
+   static RequestScheduler fromSystemProperties() {
+      Map<String, Double> weights = new HashMap<String, Double>();
+      for (Map.Entry<String, Double> e : parse(System.getProperty("gamerental.scheduler.weights", "customer:4,employee:2,manager:1")).entrySet()) {
+         weights.put(e.getKey(), e.getValue());
+      }
+      Map<OperationClass, Double> rates = new EnumMap<OperationClass, Double>(OperationClass.class);
+      for (Map.Entry<String, Double> e : parse(System.getProperty("gamerental.scheduler.rates", "cheap:1000,standard:100,heavy:5")).entrySet()) {
+         rates.put(OperationClass.valueOf(e.getKey().toUpperCase()), e.getValue());
+      }
+      return new RequestScheduler(
+         Integer.getInteger("gamerental.scheduler.concurrency", 8),
+         weights, rates,
+         Integer.getInteger("gamerental.scheduler.queue", 64),
+         Long.getLong("gamerental.scheduler.timeoutMs", 5000));
+   }//end fromSystemProperties
+
+   // parses "name:value,..."
+   private static Map<String, Double> parse(String spec) {
+      Map<String, Double> values = new HashMap<String, Double>();
+      for (String part : spec.split(",")) {
+         String[] kv = part.split(":");
+         if (kv.length == 2) {
+            values.put(kv[0].trim().toLowerCase(), Double.parseDouble(kv[1].trim()));
+         }
+      }
+      return values;
+   }//end parse
+
+   /**
+    * Waits until an operation may run.  Every successful admit must be
+    * followed by one release.
+    *
+    * @param role the Users.role of the session, or null before log in
+    * @param operation the class of the operation
+    * @throws java.sql.SQLTransientException when the operation is rejected
+    */
+   public void admit(String role, OperationClass operation) throws SQLException {
+      role = role == null ? DEFAULT_ROLE : role.trim().toLowerCase();
+      if (!_weights.containsKey(role)) {
+         role = DEFAULT_ROLE;
+      }
+      long deadline = System.nanoTime() + _timeoutNanos;
+      Ticket ticket = null;
+
+      _lock.lock();
+      try {
+         long now = System.nanoTime();
+         int queued = _queuedByRole.containsKey(role) ? _queuedByRole.get(role) : 0;
+         if (queued >= _queueLimit) {
+            throw new SQLTransientException("Too many " + role + " requests waiting, please try again");
+         }
+         if (_buckets.get(operation).nanosUntil(_queuedByClass.get(operation), now) > _timeoutNanos) {
+            throw new SQLTransientException("Too many " + operation.name().toLowerCase() + " requests, please try again later");
+         }
+
+         // finish tag: start at the later of now (in virtual time) and the
+         // role's previous request, then add the request's weighted cost
+         Double last = _lastFinish.get(role);
+         double start = Math.max(_virtualTime, last == null ? 0 : last);
+         ticket = new Ticket(role, operation, start + operation.cost / _weights.get(role));
+         _lastFinish.put(role, ticket.finish);
+         _waiting.add(ticket);
+         _queuedByRole.put(role, queued + 1);
+         _queuedByClass.put(operation, _queuedByClass.get(operation) + 1);
+
+         dispatch();
+         while (!ticket.granted) {
+            now = System.nanoTime();
+            if (now >= deadline) {
+               remove(ticket);
+               throw new SQLTransientException("Request timed out waiting for the database, please try again");
+            }
+            // wake up for the next token even if nothing else changes: a
+            // release that frees a slot while the bucket is empty grants
+            // nothing, so no one is signalled
+            long wait = deadline - now;
+            long untilToken = _buckets.get(operation).nanosUntil(0, now);
+            if (untilToken > 0) {
+               wait = Math.min(wait, untilToken);
+            }
+            _changed.awaitNanos(wait);
+            dispatch();
+         }
+      } catch (InterruptedException e) {
+         // give back whatever the ticket holds: its slot if it was granted
+         // while the interrupt was delivered, else its place in the queue
+         if (ticket.granted) {
+            _running--;
+            dispatch();
+         } else {
+            remove(ticket);
+         }
+         Thread.currentThread().interrupt();
+         throw new SQLTransientException("Interrupted while waiting for the database");
+      } finally {
+         _lock.unlock();
+      }
+   }//end admit
+
+   /**
+    * Ends an operation admitted by admit.
+    */
+   public void release() {
+      _lock.lock();
+      try {
+         _running--;
+         dispatch();
+      } finally {
+         _lock.unlock();
+      }
+   }//end release
+
+   // grants waiting tickets, smallest finish tag first, while there is room
+   // and their class has a token; called with the lock held
+   private void dispatch() {
+      long now = System.nanoTime();
+      boolean granted = false;
+      while (_running < _concurrency) {
+         Ticket best = null;
+         for (Ticket t : _waiting) {
+            if ((best == null || t.finish < best.finish) && _buckets.get(t.operation).available(now)) {
+               best = t;
+            }
+         }
+         if (best == null) {
+            break;
+         }
+         _buckets.get(best.operation).take();
+         remove(best);
+         best.granted = true;
+         // a ticket admitted out of tag order (its class had no token) must
+         // not move virtual time back
+         _virtualTime = Math.max(_virtualTime, best.finish);
+         _running++;
+         granted = true;
+      }
+      if (granted) {
+         _changed.signalAll();
+      }
+   }//end dispatch
+
+   private void remove(Ticket ticket) {
+      _waiting.remove(ticket);
+      _queuedByRole.put(ticket.role, _queuedByRole.get(ticket.role) - 1);
+      _queuedByClass.put(ticket.operation, _queuedByClass.get(ticket.operation) - 1);
+   }//end remove
+}//end RequestScheduler
@@ -0,0 +1,150 @@
+/*
+ * Tests for the request scheduler of the Game Rental System
+ * =========================================================
+ *
+ * Run from the java directory:
+ *   javac -d classes src/*.java test/*.java && java -cp classes RequestSchedulerTest
+ *
+ */
+
+
+import java.sql.SQLTransientException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class checks the timing guarantees of RequestScheduler without a
+ * database; it exits with status 1 when a check fails.
+ *
+ */
+public class RequestSchedulerTest {
+
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      waiterWakesUpForNextToken();
+      fullQueueRejectsRightAway();
+      interruptedWaiterLeavesQueue();
+      System.out.println(failures == 0 ? "OK" : failures + " check(s) failed");
+      System.exit(failures == 0 ? 0 : 1);
+   }//end main
+
+   // one slot, one heavy operation per second: a second heavy operation queued
+   // while the slot is busy must run once the next token is due, not at its timeout
+   static void waiterWakesUpForNextToken() throws Exception {
+      final RequestScheduler scheduler = scheduler(1, 1, 64, 5000);
+      scheduler.admit("manager", RequestScheduler.OperationClass.HEAVY);
+      new Thread(new Runnable() {
+         public void run() {
+            sleep(100);
+            scheduler.release();
+         }
+      }).start();
+
+      long start = System.nanoTime();
+      scheduler.admit("manager", RequestScheduler.OperationClass.HEAVY);
+      long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      scheduler.release();
+      check("second heavy operation admitted after " + waited + " ms", waited >= 800 && waited < 2000);
+   }//end waiterWakesUpForNextToken
+
+   // a role whose queue is full is rejected without waiting
+   static void fullQueueRejectsRightAway() throws Exception {
+      final RequestScheduler scheduler = scheduler(1, 1, 1, 5000);
+      scheduler.admit("customer", RequestScheduler.OperationClass.CHEAP);
+      Thread queued = new Thread(new Runnable() {
+         public void run() {
+            try {
+               scheduler.admit("customer", RequestScheduler.OperationClass.CHEAP);
+               scheduler.release();
+            }catch (Exception e) {
+               // the check below fails instead
+            }//end try
+         }
+      });
+      queued.start();
+      sleep(100);
+
+      long start = System.nanoTime();
+      boolean rejected = false;
+      try {
+         scheduler.admit("customer", RequestScheduler.OperationClass.CHEAP);
+         scheduler.release();
+      }catch (SQLTransientException e) {
+         rejected = true;
+      }//end try
+      long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      check("full queue rejected after " + waited + " ms", rejected && waited < 1000);
+
+      scheduler.release();
+      queued.join();
+   }//end fullQueueRejectsRightAway
+
+   // an interrupted waiter gives up its queue place: with a queue of one, the
+   // next operation is queued and gets the slot instead of being rejected
+   static void interruptedWaiterLeavesQueue() throws Exception {
+      final RequestScheduler scheduler = scheduler(1, 1, 1, 5000);
+      scheduler.admit("customer", RequestScheduler.OperationClass.CHEAP);
+      final boolean[] interrupted = new boolean[1];
+      Thread waiter = new Thread(new Runnable() {
+         public void run() {
+            try {
+               scheduler.admit("customer", RequestScheduler.OperationClass.CHEAP);
+               scheduler.release();
+            }catch (Exception e) {
+               interrupted[0] = Thread.currentThread().isInterrupted();
+            }//end try
+         }
+      });
+      waiter.start();
+      sleep(100);
+      waiter.interrupt();
+      waiter.join();
+      check("interrupted waiter gave up", interrupted[0]);
+
+      new Thread(new Runnable() {
+         public void run() {
+            sleep(100);
+            scheduler.release();
+         }
+      }).start();
+      boolean admitted = false;
+      try {
+         scheduler.admit("customer", RequestScheduler.OperationClass.CHEAP);
+         scheduler.release();
+         admitted = true;
+      }catch (SQLTransientException e) {
+         // the check below fails instead
+      }//end try
+      check("next operation admitted after an interrupted waiter", admitted);
+   }//end interruptedWaiterLeavesQueue
+
+   private static RequestScheduler scheduler(int concurrency, double heavyRate, int queue, long timeoutMillis) {
+      Map<String, Double> weights = new HashMap<String, Double>();
+      weights.put("customer", 4.0);
+      weights.put("employee", 2.0);
+      weights.put("manager", 1.0);
+      Map<RequestScheduler.OperationClass, Double> rates = new EnumMap<RequestScheduler.OperationClass, Double>(RequestScheduler.OperationClass.class);
+      rates.put(RequestScheduler.OperationClass.CHEAP, 1000.0);
+      rates.put(RequestScheduler.OperationClass.STANDARD, 100.0);
+      rates.put(RequestScheduler.OperationClass.HEAVY, heavyRate);
+      return new RequestScheduler(concurrency, weights, rates, queue, timeoutMillis);
+   }//end scheduler
+
+   private static void check(String what, boolean ok) {
+      System.out.println((ok ? "PASS " : "FAIL ") + what);
+      if (!ok) {
+         failures++;
+      }
+   }//end check
+
+   private static void sleep(long millis) {
+      try {
+         Thread.sleep(millis);
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end sleep
+}//end RequestSchedulerTest
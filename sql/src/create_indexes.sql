@@ -11,4 +11,7 @@ CREATE INDEX rentalOrderLogin ON RentalOrder(login);
 CREATE INDEX rentalOrderTimestamp ON RentalOrder(orderTimestamp);
 
 -- Users table
-CREATE INDEX UserRole ON Users(role);
\ No newline at end of file
+CREATE INDEX UserRole ON Users(role);
+
+-- OrderSummary table
+CREATE INDEX orderSummaryLoginTimestamp ON OrderSummary(login, orderTimestamp);
\ No newline at end of file
@@ -3,6 +3,7 @@ DROP TABLE IF EXISTS Catalog CASCADE;
 DROP TABLE IF EXISTS RentalOrder CASCADE;
 DROP TABLE IF EXISTS TrackingInfo CASCADE;
 DROP TABLE IF EXISTS GamesInOrder CASCADE;
+DROP TABLE IF EXISTS OrderSummary CASCADE;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -53,3 +54,22 @@ CREATE TABLE GamesInOrder ( rentalOrderID varchar(50) NOT NULL,
                            FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
                            ON DELETE CASCADE
 );
+
+-- One row per rental order with its games and latest tracking status, kept
+-- current by the Java client whenever it writes an order, tracking update or
+-- catalog name, so order listings need no joins
+CREATE TABLE OrderSummary ( rentalOrderID varchar(50) NOT NULL,
+                            login varchar(50) NOT NULL,
+                            orderTimestamp timestamp NOT NULL,
+                            dueDate timestamp NOT NULL,
+                            noOfGames integer NOT NULL,
+                            totalPrice decimal(10,2) NOT NULL,
+                            itemCount integer NOT NULL,
+                            games text,
+                            trackingID varchar(50),
+                            trackingStatus varchar(50),
+                            lastUpdateDate timestamp,
+                            PRIMARY KEY(rentalOrderID),
+                            FOREIGN KEY(rentalOrderID) REFERENCES RentalOrder(rentalOrderID)
+                            ON DELETE CASCADE
+);
@@ -18,3 +18,17 @@ WITH DELIMITER ',' CSV HEADER;
 COPY GamesInOrder
 FROM '/home/csmajs/alin166/cs166_project_phase3/data/gamesinorder.csv'
 WITH DELIMITER ',' CSV HEADER;
+
+/* Build the order summaries from the loaded orders */
+INSERT INTO OrderSummary (rentalOrderID, login, orderTimestamp, dueDate, noOfGames, totalPrice,
+                          itemCount, games, trackingID, trackingStatus, lastUpdateDate)
+SELECT R.rentalOrderID, R.login, R.orderTimestamp, R.dueDate, R.noOfGames, R.totalPrice,
+       COALESCE((SELECT SUM(G.unitsOrdered) FROM GamesInOrder G WHERE G.rentalOrderID = R.rentalOrderID), 0),
+       (SELECT string_agg(C.gameName || ' x' || G.unitsOrdered, ', ' ORDER BY G.gameID)
+        FROM GamesInOrder G, Catalog C
+        WHERE G.rentalOrderID = R.rentalOrderID AND C.gameID = G.gameID),
+       T.trackingID, T.status, T.lastUpdateDate
+FROM RentalOrder R
+LEFT JOIN (SELECT DISTINCT ON (rentalOrderID) rentalOrderID, trackingID, status, lastUpdateDate
+           FROM TrackingInfo
+           ORDER BY rentalOrderID, lastUpdateDate DESC) T ON T.rentalOrderID = R.rentalOrderID;